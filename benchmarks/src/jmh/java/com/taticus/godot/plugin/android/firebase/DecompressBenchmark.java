@@ -0,0 +1,83 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip response decoding: the original decompress (32 byte buffers, a String per chunk) against
+ * a plain buffered copy and ContentDecoder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DecompressBenchmark {
+
+    @Param({"1024", "65536", "1048576", "4194304", "10485760"})
+    public int size;
+
+    private byte[] compressed;
+
+    @Setup
+    public void setUp() throws IOException {
+        StringBuilder json = new StringBuilder(size + 64);
+        json.append('[');
+        for (int i = 0; json.length() < size; i++) {
+            json.append("{\"id\":").append(i).append(",\"name\":\"player").append(i % 97).append("\",\"score\":").append(i * 31 % 10007).append("},");
+        }
+        json.setCharAt(json.length() - 1, ']');
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(json.toString().getBytes(StandardCharsets.UTF_8));
+        gzip.close();
+        compressed = bytes.toByteArray();
+    }
+
+    @Benchmark
+    public String legacyDecompress() throws IOException {
+        final int BUFFER_SIZE = 32;
+        ByteArrayInputStream is = new ByteArrayInputStream(compressed);
+        GZIPInputStream gis = new GZIPInputStream(is, BUFFER_SIZE);
+        StringBuilder string = new StringBuilder();
+        byte[] data = new byte[BUFFER_SIZE];
+        int bytesRead;
+        while ((bytesRead = gis.read(data)) != -1) {
+            string.append(new String(data, 0, bytesRead));
+        }
+        gis.close();
+        is.close();
+        return string.toString();
+    }
+
+    @Benchmark
+    public String bufferedCopy() throws IOException {
+        GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(compressed), 16 * 1024);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] data = new byte[16 * 1024];
+        int bytesRead;
+        while ((bytesRead = gis.read(data)) != -1) {
+            out.write(data, 0, bytesRead);
+        }
+        gis.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String contentDecoder() throws IOException {
+        return ContentDecoder.readString(ContentDecoder.decode(new ByteArrayInputStream(compressed), "gzip"), -1L, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,88 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building an event's parameters from a GDScript Dictionary with EventParams, into a HashMap
+ * standing in for android.os.Bundle.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventPayloadBenchmark {
+
+    private static final EventParams.Target<Map<String, Object>> TARGET = new EventParams.Target<Map<String, Object>>() {
+        @Override
+        public Map<String, Object> create() {
+            return new HashMap<>();
+        }
+
+        @Override
+        public void putString(Map<String, Object> params, String key, String value) {
+            params.put(key, value);
+        }
+
+        @Override
+        public void putLong(Map<String, Object> params, String key, long value) {
+            params.put(key, value);
+        }
+
+        @Override
+        public void putDouble(Map<String, Object> params, String key, double value) {
+            params.put(key, value);
+        }
+
+        @Override
+        public void putArray(Map<String, Object> params, String key, List<Map<String, Object>> items) {
+            params.put(key, items);
+        }
+
+        @Override
+        public void dropped(String event, String key, String reason) {
+        }
+    };
+
+    @Param({"4", "25"})
+    public int parameters;
+
+    private final AnalyticsNames names = new AnalyticsNames();
+    private Map<String, Object> values;
+
+    @Setup
+    public void setUp() {
+        values = new HashMap<>();
+        for (int i = 0; i < parameters; i++) {
+            switch (i % 4) {
+                case 0:
+                    values.put("level_name_" + i, "forest_" + i);
+                    break;
+                case 1:
+                    values.put("score_" + i, i * 100);
+                    break;
+                case 2:
+                    values.put("ratio_" + i, i / 7.0);
+                    break;
+                default:
+                    values.put("completed_" + i, i % 2 == 0);
+                    break;
+            }
+        }
+    }
+
+    @Benchmark
+    public Map<String, Object> build() {
+        return EventParams.build("level_end", values, names, TARGET);
+    }
+}
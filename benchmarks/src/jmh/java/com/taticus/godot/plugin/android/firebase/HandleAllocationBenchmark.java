@@ -0,0 +1,62 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocating and releasing a handle while other handles are alive, as new_bundle, new_trace and
+ * new_http_metric do: the original first-free-key scan over a HashMap against HandleRegistry.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HandleAllocationBenchmark {
+
+    @Param({"16", "1024"})
+    public int live;
+
+    private final Object value = new Object();
+    private HashMap<Integer, Object> legacy;
+    private HandleRegistry<Object> registry;
+
+    @Setup
+    public void setUp() {
+        legacy = new HashMap<>();
+        registry = new HandleRegistry<>();
+        for (int i = 0; i < live; i++) {
+            legacyAdd(legacy, value);
+            registry.add(value);
+        }
+    }
+
+    @Benchmark
+    public Object legacyScan() {
+        int handle = legacyAdd(legacy, value);
+        return legacy.remove(handle);
+    }
+
+    @Benchmark
+    public Object handleRegistry() {
+        int handle = registry.add(value);
+        return registry.remove(handle);
+    }
+
+    private static int legacyAdd(HashMap<Integer, Object> handles, Object value) {
+        for (int i = 0; i <= handles.keySet().size(); i++) {
+            if (!handles.containsKey(i)) {
+                handles.put(i, value);
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,82 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posting signals from worker threads and draining them on the engine thread: SignalQueue
+ * against the runOnUiThread style of a lock-protected list.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SignalDispatchBenchmark {
+
+    // Producers back off past this depth so the queues stay bounded however fast they post.
+    private static final int MAX_DEPTH = 4096;
+
+    private final SignalQueue queue = new SignalQueue();
+    private final List<Object[]> locked = new ArrayList<>();
+
+    private static final class Sink implements SignalQueue.Emitter {
+        Blackhole blackhole;
+
+        @Override
+        public void emit(String signal, Object[] args) {
+            blackhole.consume(args);
+        }
+    }
+
+    private final Sink sink = new Sink();
+
+    @Benchmark
+    @Group("signalQueue")
+    @GroupThreads(3)
+    public void signalQueuePost() {
+        if (queue.size() < MAX_DEPTH) queue.post("http_response", 1, 200, "{}");
+    }
+
+    @Benchmark
+    @Group("signalQueue")
+    @GroupThreads(1)
+    public int signalQueueDrain(Blackhole blackhole) {
+        sink.blackhole = blackhole;
+        return queue.drain(sink, 32, TimeUnit.MILLISECONDS.toNanos(2));
+    }
+
+    @Benchmark
+    @Group("lockedList")
+    @GroupThreads(3)
+    public void lockedListPost() {
+        Object[] args = {"http_response", 1, 200, "{}"};
+        synchronized (locked) {
+            if (locked.size() < MAX_DEPTH) locked.add(args);
+        }
+    }
+
+    @Benchmark
+    @Group("lockedList")
+    @GroupThreads(1)
+    public int lockedListDrain(Blackhole blackhole) {
+        Object[][] drained;
+        synchronized (locked) {
+            int count = Math.min(32, locked.size());
+            drained = new Object[count][];
+            for (int i = 0; i < count; i++) drained[i] = locked.get(i);
+            locked.subList(0, count).clear();
+        }
+        for (Object[] args : drained) blackhole.consume(args);
+        return drained.length;
+    }
+}
@@ -0,0 +1,201 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import okhttp3.Request;
+
+/**
+ * Sends a number of requests the way http_request_with_options does, with at most a given number
+ * in flight, and collects completion codes, latency and the heap high-water mark while they run.
+ * Completions are posted to a SignalQueue and only count once a frame loop, paced and budgeted
+ * like the plugin's, has emitted them.
+ */
+final class LoadTestRun implements HttpResponseListener {
+
+    interface Urls {
+        String url(int index);
+    }
+
+    static final class Thresholds {
+        final double minSuccessRate;
+        final double minRequestsPerSecond;
+        final double maxP99Millis;
+        final long maxHeapBytes;
+
+        Thresholds(double minSuccessRate, double minRequestsPerSecond, double maxP99Millis, long maxHeapBytes) {
+            this.minSuccessRate = minSuccessRate;
+            this.minRequestsPerSecond = minRequestsPerSecond;
+            this.maxP99Millis = maxP99Millis;
+            this.maxHeapBytes = maxHeapBytes;
+        }
+    }
+
+    private static final String HTTP_RESPONSE = "http_response";
+    // The plugin's defaults for set_signal_budget, at 60 frames per second.
+    private static final int MAX_SIGNALS_PER_FRAME = 32;
+    private static final long SIGNAL_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long FRAME_MILLIS = 16L;
+
+    private final HttpRequests requests;
+    private final String[] headers;
+    private final Map<String, Object> options;
+    private final int total;
+
+    private final SignalQueue signals = new SignalQueue();
+    private final AtomicLongArray started;
+    private final CountDownLatch completed;
+    private final Semaphore window;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong heapHighWater = new AtomicLong();
+
+    // Only touched by the frame thread until it has been joined.
+    private int succeeded;
+    private int failed;
+    private int serverErrors;
+
+    private long elapsedNanos;
+    private boolean timedOut;
+
+    private final SignalQueue.Emitter emitter = new SignalQueue.Emitter() {
+        @Override
+        public void emit(String signal, Object[] args) {
+            int id = (Integer) args[0];
+            int code = (Integer) args[1];
+            latency.recordNanos(System.nanoTime() - started.get(id));
+            if (code >= 200 && code < 400) {
+                succeeded++;
+            } else {
+                failed++;
+                if (code >= 500) serverErrors++;
+            }
+            window.release();
+            completed.countDown();
+        }
+    };
+
+    LoadTestRun(HttpRequests requests, String[] headers, Map<String, Object> options, int total, int inFlight) {
+        this.requests = requests;
+        this.headers = headers;
+        this.options = options;
+        this.total = total;
+        this.started = new AtomicLongArray(total);
+        this.completed = new CountDownLatch(total);
+        this.window = new Semaphore(inFlight);
+    }
+
+    LoadTestRun run(Urls urls, long timeoutMillis) throws InterruptedException {
+        Thread sampler = startHeapSampler();
+        Thread frames = startFrameLoop();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (int i = 0; i < total; i++) {
+            if (!window.tryAcquire(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) break;
+
+            started.set(i, System.nanoTime());
+            HttpOptions httpOptions = HttpOptions.parse(options, requests.warnings);
+            Request request = requests.build(urls.url(i), headers, "GET", null, httpOptions);
+            requests.submit(i, request, httpOptions, this);
+        }
+
+        timedOut = !completed.await(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        elapsedNanos = System.nanoTime() - start;
+        frames.interrupt();
+        frames.join();
+        sampler.interrupt();
+        sampler.join();
+        return this;
+    }
+
+    @Override
+    public void onHttpResponse(int id, HttpResult result) {
+        requests.remove(id);
+        signals.post(HTTP_RESPONSE, id, result.code, result.body);
+    }
+
+    int completedCount() {
+        return succeeded + failed;
+    }
+
+    double successRate() {
+        return total > 0 ? (double) succeeded / total : 1.0;
+    }
+
+    double requestsPerSecond() {
+        double seconds = elapsedNanos / 1e9;
+        return seconds > 0 ? completedCount() / seconds : 0.0;
+    }
+
+    double p99Millis() {
+        return (Double) latency.snapshot().get("p99_ms");
+    }
+
+    long heapHighWater() {
+        return heapHighWater.get();
+    }
+
+    /**
+     * Prints a report line and returns whether every threshold was met.
+     */
+    boolean check(String scenario, Thresholds thresholds) {
+        Map<String, Object> stats = latency.snapshot();
+        boolean complete = !timedOut && completedCount() == total;
+        boolean passed = complete
+                && successRate() >= thresholds.minSuccessRate
+                && requestsPerSecond() >= thresholds.minRequestsPerSecond
+                && p99Millis() <= thresholds.maxP99Millis
+                && heapHighWater() <= thresholds.maxHeapBytes;
+
+        System.out.println(String.format(Locale.ROOT,
+                "%-12s %-4s requests=%d completed=%d ok=%d failed=%d 5xx=%d rate=%.1f/s p50=%.1fms p99=%.1fms max=%.1fms heap=%dMB%s",
+                scenario, passed ? "PASS" : "FAIL", total, completedCount(), succeeded, failed, serverErrors,
+                requestsPerSecond(), stats.get("p50_ms"), stats.get("p99_ms"), stats.get("max_ms"),
+                heapHighWater() / (1024 * 1024), timedOut ? " TIMED OUT" : ""));
+        return passed;
+    }
+
+    private Thread startFrameLoop() {
+        Thread frames = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    signals.drain(emitter, MAX_SIGNALS_PER_FRAME, SIGNAL_BUDGET_NANOS);
+                    try {
+                        Thread.sleep(FRAME_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "load-test-frames");
+        frames.setDaemon(true);
+        frames.start();
+        return frames;
+    }
+
+    private Thread startHeapSampler() {
+        Thread sampler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Runtime runtime = Runtime.getRuntime();
+                while (!Thread.currentThread().isInterrupted()) {
+                    long used = runtime.totalMemory() - runtime.freeMemory();
+                    if (used > heapHighWater.get()) heapHighWater.set(used);
+                    try {
+                        Thread.sleep(20L);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "heap-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+        return sampler;
+    }
+}
@@ -0,0 +1,126 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+/**
+ * MockWebServer with one endpoint per fault:
+ * <ul>
+ * <li>/fast: small JSON body.</li>
+ * <li>/slow: small JSON body delivered after a delay.</li>
+ * <li>/gzip: about 1 MB of JSON, gzip encoded.</li>
+ * <li>/truncated-gzip: the same gzip body cut in half, which must fail cleanly.</li>
+ * <li>/flaky: bursts of 503s, a few requests out of every 50.</li>
+ * <li>/reset: drops the connection the first time each distinct URL is requested.</li>
+ * </ul>
+ */
+final class LoadTestServer extends Dispatcher {
+
+    static final long SLOW_DELAY_MILLIS = 100L;
+    private static final int BURST_PERIOD = 50;
+    private static final int BURST_LENGTH = 4;
+
+    // Held so the level sticks. MockWebServer logs every request it serves, and a warning for
+    // every connection the /reset endpoint drops.
+    private static final Logger SERVER_LOG = Logger.getLogger(MockWebServer.class.getName());
+
+    private final MockWebServer server = new MockWebServer();
+    private final byte[] gzip;
+    private final byte[] truncatedGzip;
+    private final AtomicInteger flakyCount = new AtomicInteger();
+    private final Set<String> reset = ConcurrentHashMap.newKeySet();
+
+    LoadTestServer() throws IOException {
+        StringBuilder json = new StringBuilder(1024 * 1024 + 64);
+        json.append('[');
+        for (int i = 0; json.length() < 1024 * 1024; i++) {
+            json.append("{\"id\":").append(i).append(",\"name\":\"player").append(i % 97).append("\",\"score\":").append(i * 31 % 10007).append("},");
+        }
+        json.setCharAt(json.length() - 1, ']');
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+        out.close();
+        gzip = bytes.toByteArray();
+        truncatedGzip = new byte[gzip.length / 2];
+        System.arraycopy(gzip, 0, truncatedGzip, 0, truncatedGzip.length);
+
+        SERVER_LOG.setLevel(Level.SEVERE);
+        server.setDispatcher(this);
+    }
+
+    void start() throws IOException {
+        server.start();
+    }
+
+    String url(String path) {
+        return server.url(path).toString();
+    }
+
+    /**
+     * Drops the requests MockWebServer has recorded so far, which it otherwise keeps forever and
+     * which would show up as growth in the soak test.
+     */
+    void discardRecorded() throws InterruptedException {
+        while (server.takeRequest(0L, TimeUnit.MILLISECONDS) != null) {
+            // Nothing to inspect.
+        }
+    }
+
+    void stop() throws IOException {
+        server.shutdown();
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+        String path = request.getPath();
+        if (path.startsWith("/slow")) {
+            return json().setBodyDelay(SLOW_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } else if (path.startsWith("/gzip")) {
+            return gzip(gzip);
+        } else if (path.startsWith("/truncated-gzip")) {
+            return gzip(truncatedGzip);
+        } else if (path.startsWith("/flaky")) {
+            if (flakyCount.getAndIncrement() % BURST_PERIOD < BURST_LENGTH) {
+                return new MockResponse().setResponseCode(503).setBody("unavailable");
+            }
+            return json();
+        } else if (path.startsWith("/reset")) {
+            if (reset.add(path)) {
+                return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST);
+            }
+            reset.remove(path);
+            return json();
+        }
+        return json();
+    }
+
+    private static MockResponse json() {
+        return new MockResponse()
+                .setHeader("Content-Type", "application/json")
+                .setBody("{\"ok\":true,\"score\":1234}");
+    }
+
+    private static MockResponse gzip(byte[] body) {
+        return new MockResponse()
+                .setHeader("Content-Type", "application/json")
+                .setHeader("Content-Encoding", "gzip")
+                .setBody(new Buffer().write(body));
+    }
+}
@@ -0,0 +1,53 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.HashMap;
+
+/**
+ * Validates analytics event and parameter names against Firebase's rules and caches the
+ * validated names, so repeated keys are checked once and share a single String instance.
+ */
+final class AnalyticsNames {
+
+    static final int MAX_NAME_LENGTH = 40;
+    static final int MAX_STRING_VALUE_LENGTH = 100;
+    static final int MAX_PARAMETERS = 25;
+
+    private static final int MAX_CACHED_NAMES = 512;
+    private static final String[] RESERVED_PREFIXES = {"firebase_", "google_", "ga_"};
+
+    private final HashMap<String, String> cache = new HashMap<>();
+
+    /**
+     * Returns the canonical instance of a valid name, or null if the name is invalid.
+     */
+    synchronized String intern(String name) {
+        String cached = cache.get(name);
+        if (cached != null) return cached;
+        if (!isValid(name)) return null;
+
+        if (cache.size() >= MAX_CACHED_NAMES) cache.clear();
+        cache.put(name, name);
+        return name;
+    }
+
+    static boolean isValid(String name) {
+        if (name == null || name.isEmpty() || name.length() > MAX_NAME_LENGTH) return false;
+        if (!isAsciiLetter(name.charAt(0))) return false;
+        for (int i = 1; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!isAsciiLetter(c) && !(c >= '0' && c <= '9') && c != '_') return false;
+        }
+        for (String prefix : RESERVED_PREFIXES) {
+            if (name.startsWith(prefix)) return false;
+        }
+        return true;
+    }
+
+    static String truncate(String value) {
+        return value.length() > MAX_STRING_VALUE_LENGTH ? value.substring(0, MAX_STRING_VALUE_LENGTH) : value;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
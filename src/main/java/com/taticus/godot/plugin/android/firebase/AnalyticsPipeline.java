@@ -0,0 +1,242 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves analytics logging off the calling thread. Events are put into a bounded ring buffer and
+ * a background worker hands them to the sink in batches, when enough events are pending or the
+ * flush interval has elapsed. Events can be sampled per name, and identical events logged within
+ * one flush window can be folded into a single event carrying a count.
+ */
+final class AnalyticsPipeline {
+
+    interface Sink {
+        void log(Event event);
+    }
+
+    static final class Event {
+        final String name;
+        final String[] keys;
+        final Object[] values;
+        final Object payload;
+        int count = 1;
+
+        /**
+         * Either keys and values describe the parameters, or payload is an already built,
+         * sink-specific parameter object.
+         */
+        Event(String name, String[] keys, Object[] values, Object payload) {
+            this.name = name;
+            this.keys = keys;
+            this.values = values;
+            this.payload = payload;
+        }
+
+        String aggregationKey() {
+            if (payload != null) return null;
+            return name + '\u0000' + Arrays.toString(keys) + '\u0000' + Arrays.deepToString(values);
+        }
+    }
+
+    private final Sink sink;
+    private final ConcurrentHashMap<String, Double> samplingRates = new ConcurrentHashMap<>();
+
+    private Event[] ring;
+    private int head;
+    private int size;
+    private int batchSize = 32;
+    private long flushIntervalMillis = 2000L;
+    private boolean aggregate;
+    private boolean flushRequested;
+    private long flushedUpTo;
+    private long flushTicket;
+
+    private long enqueued;
+    private long dropped;
+    private long sampledOut;
+    private long aggregated;
+    private long logged;
+    private long flushes;
+    private int maxDepth;
+
+    AnalyticsPipeline(Sink sink, int capacity) {
+        this.sink = sink;
+        this.ring = new Event[Math.max(1, capacity)];
+
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, "FirebasePlugin-analytics");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    synchronized void configure(int capacity, int batchSize, long flushIntervalMillis, boolean aggregate) {
+        if (capacity > 0 && capacity != ring.length && capacity >= size) {
+            Event[] resized = new Event[capacity];
+            for (int i = 0; i < size; i++) resized[i] = ring[(head + i) % ring.length];
+            ring = resized;
+            head = 0;
+        }
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMillis = Math.max(1L, flushIntervalMillis);
+        this.aggregate = aggregate;
+        notifyAll();
+    }
+
+    void setSamplingRate(String name, double rate) {
+        if (rate >= 1.0) {
+            samplingRates.remove(name);
+        } else {
+            samplingRates.put(name, Math.max(0.0, rate));
+        }
+    }
+
+    /**
+     * Queues the event and returns immediately. Returns false if it was sampled out or dropped
+     * because the buffer is full.
+     */
+    boolean submit(Event event) {
+        Double rate = samplingRates.get(event.name);
+        if (rate != null && ThreadLocalRandom.current().nextDouble() >= rate) {
+            synchronized (this) {
+                sampledOut++;
+            }
+            return false;
+        }
+
+        synchronized (this) {
+            if (size == ring.length) {
+                dropped++;
+                return false;
+            }
+            ring[(head + size) % ring.length] = event;
+            size++;
+            enqueued++;
+            if (size > maxDepth) maxDepth = size;
+            if (size >= batchSize) notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Asks the worker to flush everything queued so far and waits up to timeoutMillis for it.
+     */
+    void flush(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (this) {
+            long ticket = ++flushTicket;
+            flushRequested = true;
+            notifyAll();
+            try {
+                while (flushedUpTo < ticket) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) return;
+                    wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("queued", size);
+        stats.put("capacity", ring.length);
+        stats.put("max_depth", maxDepth);
+        stats.put("enqueued", (int) enqueued);
+        stats.put("dropped", (int) dropped);
+        stats.put("sampled_out", (int) sampledOut);
+        stats.put("aggregated", (int) aggregated);
+        stats.put("logged", (int) logged);
+        stats.put("flushes", (int) flushes);
+        return stats;
+    }
+
+    private void work() {
+        while (true) {
+            Event[] batch;
+            long ticket;
+            boolean fold;
+            synchronized (this) {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                try {
+                    while (size < batchSize && !flushRequested) {
+                        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                        if (remaining <= 0) break;
+                        wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                batch = new Event[size];
+                for (int i = 0; i < size; i++) {
+                    int index = (head + i) % ring.length;
+                    batch[i] = ring[index];
+                    ring[index] = null;
+                }
+                head = 0;
+                size = 0;
+                ticket = flushTicket;
+                flushRequested = false;
+                fold = aggregate;
+            }
+
+            int count = deliver(batch, fold);
+
+            synchronized (this) {
+                if (batch.length > 0) flushes++;
+                logged += count;
+                aggregated += batch.length - count;
+                flushedUpTo = ticket;
+                notifyAll();
+            }
+        }
+    }
+
+    private int deliver(Event[] batch, boolean fold) {
+        if (!fold) {
+            for (Event event : batch) log(event);
+            return batch.length;
+        }
+
+        LinkedHashMap<String, Event> folded = new LinkedHashMap<>();
+        int passthrough = 0;
+        for (Event event : batch) {
+            String key = event.aggregationKey();
+            if (key == null) {
+                log(event);
+                passthrough++;
+                continue;
+            }
+
+            Event existing = folded.get(key);
+            if (existing != null) {
+                existing.count++;
+            } else {
+                folded.put(key, event);
+            }
+        }
+
+        for (Event event : folded.values()) log(event);
+        return passthrough + folded.size();
+    }
+
+    private void log(Event event) {
+        try {
+            sink.log(event);
+        } catch (RuntimeException e) {
+            // A bad event must not kill the worker; it is simply not logged.
+        }
+    }
+}
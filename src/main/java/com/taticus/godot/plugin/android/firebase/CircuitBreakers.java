@@ -0,0 +1,89 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-host circuit breakers. A host is opened after a run of consecutive failures and requests
+ * to it fail fast until the open period has passed. The first request after that is let through
+ * as a probe: its success closes the breaker again, its failure re-opens it.
+ */
+final class CircuitBreakers {
+
+    static final String CLOSED = "closed";
+    static final String OPEN = "open";
+    static final String HALF_OPEN = "half_open";
+
+    private static final class Breaker {
+        String state = CLOSED;
+        int consecutiveFailures;
+        long openUntil;
+        boolean probing;
+        long probeStarted;
+        int timesOpened;
+    }
+
+    private final HashMap<String, Breaker> breakers = new HashMap<>();
+    private int failureThreshold = 5;
+    private long openMillis = 30000L;
+
+    synchronized void configure(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = Math.max(0L, openMillis);
+    }
+
+    synchronized boolean allow(String host, long now) {
+        Breaker breaker = breakers.get(host);
+        if (breaker == null || breaker.state.equals(CLOSED)) return true;
+
+        if (breaker.state.equals(OPEN)) {
+            if (now < breaker.openUntil) return false;
+            breaker.state = HALF_OPEN;
+            breaker.probing = false;
+        }
+
+        // A probe that never reported back (e.g. it was cancelled) must not block the host forever.
+        if (breaker.probing && now - breaker.probeStarted < openMillis) return false;
+        breaker.probing = true;
+        breaker.probeStarted = now;
+        return true;
+    }
+
+    synchronized void onSuccess(String host) {
+        Breaker breaker = breakers.get(host);
+        if (breaker != null) {
+            breaker.state = CLOSED;
+            breaker.consecutiveFailures = 0;
+            breaker.probing = false;
+        }
+    }
+
+    synchronized void onFailure(String host, long now) {
+        Breaker breaker = breakers.get(host);
+        if (breaker == null) {
+            breaker = new Breaker();
+            breakers.put(host, breaker);
+        }
+
+        breaker.consecutiveFailures++;
+        if (breaker.state.equals(HALF_OPEN) || breaker.consecutiveFailures >= failureThreshold) {
+            if (!breaker.state.equals(OPEN)) breaker.timesOpened++;
+            breaker.state = OPEN;
+            breaker.openUntil = now + openMillis;
+            breaker.probing = false;
+        }
+    }
+
+    synchronized Map<String, Object> states() {
+        Map<String, Object> states = new HashMap<>();
+        for (Map.Entry<String, Breaker> entry : breakers.entrySet()) {
+            Breaker breaker = entry.getValue();
+            Map<String, Object> state = new HashMap<>();
+            state.put("state", breaker.state);
+            state.put("consecutive_failures", breaker.consecutiveFailures);
+            state.put("times_opened", breaker.timesOpened);
+            states.put(entry.getKey(), state);
+        }
+        return states;
+    }
+}
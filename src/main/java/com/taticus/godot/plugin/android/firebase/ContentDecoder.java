@@ -0,0 +1,217 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.lang.reflect.Constructor;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+
+/**
+ * Content-decoding stage for response bodies. Decodes gzip, deflate and (when org.brotli is on
+ * the classpath) brotli straight from the network stream into a per-thread output buffer, and
+ * turns the result into a String with a single charset decode. Binary bodies are read into one
+ * array of the exact size instead.
+ *
+ * <p>Sizes announced by the server (Content-Length, the gzip trailer) only pre-size the output up
+ * to {@link #MAX_PRESIZE}; larger bodies grow the array as the data actually arrives, so a forged
+ * length cannot make the plugin allocate a huge array up front.
+ */
+final class ContentDecoder {
+
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final int INITIAL_OUTPUT_SIZE = 64 * 1024;
+    private static final int MAX_RETAINED_OUTPUT_SIZE = 1024 * 1024;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    static final int MAX_PRESIZE = 4 * 1024 * 1024;
+    // Deflate cannot compress better than about 1032:1, so a larger ISIZE is not trustworthy.
+    private static final int MAX_DEFLATE_RATIO = 1032;
+
+    private static final ThreadLocal<byte[]> OUTPUT = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[INITIAL_OUTPUT_SIZE];
+        }
+    };
+
+    private static final Constructor<?> BROTLI = findBrotli();
+
+    private ContentDecoder() {
+    }
+
+    static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+        if (contentEncoding == null) return in;
+
+        switch (contentEncoding.trim().toLowerCase(Locale.ROOT)) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            case "deflate":
+                return inflate(in);
+            case "br":
+                if (BROTLI == null) throw new IOException("Brotli content encoding is not supported");
+                try {
+                    return (InputStream) BROTLI.newInstance(in);
+                } catch (ReflectiveOperationException e) {
+                    throw new IOException("Unable to create brotli decoder", e);
+                }
+            default:
+                return in;
+        }
+    }
+
+    static String readString(ResponseBody body, String contentEncoding) throws IOException {
+        MediaType contentType = body.contentType();
+        Charset charset = contentType != null ? contentType.charset() : null;
+        long lengthHint = contentEncoding == null ? body.contentLength() : -1L;
+        try {
+            return readString(decode(body.byteStream(), contentEncoding), lengthHint, charset != null ? charset : StandardCharsets.UTF_8);
+        } finally {
+            body.close();
+        }
+    }
+
+    static String readString(InputStream in, long lengthHint, Charset charset) throws IOException {
+        byte[] output = OUTPUT.get();
+        if (lengthHint > output.length) {
+            output = new byte[(int) Math.min(lengthHint, MAX_PRESIZE)];
+        }
+
+        int size = 0;
+        try {
+            while (true) {
+                if (size == output.length) {
+                    // Probe before growing so an exact Content-Length never doubles the buffer.
+                    int next = in.read();
+                    if (next == -1) break;
+                    byte[] grown = new byte[output.length * 2];
+                    System.arraycopy(output, 0, grown, 0, size);
+                    output = grown;
+                    output[size++] = (byte) next;
+                }
+                int read = in.read(output, size, output.length - size);
+                if (read == -1) break;
+                size += read;
+            }
+        } finally {
+            in.close();
+        }
+
+        String result = new String(output, 0, size, charset);
+        if (output.length <= MAX_RETAINED_OUTPUT_SIZE) OUTPUT.set(output);
+        return result;
+    }
+
+    /**
+     * Reads a body as bytes. Identity bodies with a Content-Length go straight into an array of
+     * that size. Gzip bodies are read whole first, which lets the output array be sized from the
+     * ISIZE field of the gzip trailer, so up to {@link #MAX_PRESIZE} neither array is grown or
+     * copied on the way.
+     */
+    static byte[] readBytes(ResponseBody body, String contentEncoding) throws IOException {
+        long length = body.contentLength();
+        int expected = length >= 0 && length <= MAX_ARRAY_SIZE ? (int) length : -1;
+        try {
+            String encoding = contentEncoding != null ? contentEncoding.trim().toLowerCase(Locale.ROOT) : null;
+            if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+                return gunzip(readBytes(body.byteStream(), expected));
+            }
+            return readBytes(decode(body.byteStream(), contentEncoding), encoding == null || "identity".equals(encoding) ? expected : -1);
+        } finally {
+            body.close();
+        }
+    }
+
+    static byte[] gunzip(byte[] compressed) throws IOException {
+        return readBytes(new GZIPInputStream(new ByteArrayInputStream(compressed), BUFFER_SIZE), gzipSize(compressed));
+    }
+
+    /**
+     * Uncompressed size recorded in the trailer of a single-member gzip stream, or -1 when it
+     * cannot be trusted. The trailer of a multi-member stream only covers the last member, which
+     * {@link #readBytes(InputStream, int)} copes with by growing.
+     */
+    static int gzipSize(byte[] compressed) {
+        int length = compressed.length;
+        if (length < 18 || (compressed[0] & 0xFF) != 0x1F || (compressed[1] & 0xFF) != 0x8B) return -1;
+
+        long size = (compressed[length - 4] & 0xFFL)
+                | (compressed[length - 3] & 0xFFL) << 8
+                | (compressed[length - 2] & 0xFFL) << 16
+                | (compressed[length - 1] & 0xFFL) << 24;
+        return size <= MAX_ARRAY_SIZE && size <= (long) length * MAX_DEFLATE_RATIO ? (int) size : -1;
+    }
+
+    /**
+     * Reads the stream into a new array of the expected size, capped at {@link #MAX_PRESIZE},
+     * growing it only if the stream turns out longer, and trims it if shorter. Pass -1 when the
+     * size is unknown.
+     */
+    static byte[] readBytes(InputStream in, int expected) throws IOException {
+        try {
+            byte[] output = new byte[expected >= 0 ? Math.min(expected, MAX_PRESIZE) : BUFFER_SIZE];
+            int size = 0;
+            while (true) {
+                if (size == output.length) {
+                    int next = in.read();
+                    if (next == -1) return output;
+                    output = Arrays.copyOf(output, Math.max(output.length * 2, BUFFER_SIZE));
+                    output[size++] = (byte) next;
+                }
+                int read = in.read(output, size, output.length - size);
+                if (read == -1) break;
+                size += read;
+            }
+            return size == output.length ? output : Arrays.copyOf(output, size);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static InputStream inflate(InputStream in) throws IOException {
+        // Servers disagree on whether "deflate" means zlib-wrapped or raw deflate data, so peek
+        // at the first two bytes for a zlib header before choosing.
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        byte[] header = new byte[2];
+        int read = 0;
+        while (read < 2) {
+            int n = pushback.read(header, read, 2 - read);
+            if (n == -1) break;
+            read += n;
+        }
+        if (read > 0) pushback.unread(header, 0, read);
+
+        boolean zlib = read == 2
+                && (header[0] & 0x0F) == 8
+                && (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+        final Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(pushback, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    private static Constructor<?> findBrotli() {
+        try {
+            return Class.forName("org.brotli.dec.BrotliInputStream").getConstructor(InputStream.class);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
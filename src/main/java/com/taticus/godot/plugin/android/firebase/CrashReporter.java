@@ -0,0 +1,207 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sits between the plugin and Crashlytics. In breadcrumb mode, log lines go into a fixed-size
+ * ring buffer and custom keys are coalesced last-write-wins; both are only handed to Crashlytics
+ * when an exception is recorded or the app crashes, since that is the only time Crashlytics
+ * uploads them anyway. When deduplication is turned on, recorded exceptions are grouped by a hash
+ * of their message and stack, and each signature is rate limited so an error that repeats every
+ * frame is reported once per interval with a repeat count instead of flooding the dashboard.
+ * Both modes are off by default.
+ */
+final class CrashReporter {
+
+    interface Sink {
+        void log(String message);
+
+        void setCustomKey(String key, String value);
+
+        void recordException(Throwable exception);
+    }
+
+    static final String REPEATS_KEY = "exception_repeats";
+
+    private static final int MAX_SIGNATURES = 256;
+    private static final long WINDOW_MILLIS = 60_000L;
+
+    private static final class Signature {
+        long lastReported;
+        int suppressed;
+        long total;
+    }
+
+    private final Sink sink;
+
+    private boolean breadcrumbs;
+    private String[] ring = new String[64];
+    private long[] ringTimes = new long[64];
+    private int head;
+    private int size;
+    private final HashMap<String, String> keys = new HashMap<>();
+
+    private boolean dedup;
+    private long intervalMillis = 60_000L;
+    private int maxPerMinute = 10;
+    private long windowStart;
+    private int windowCount;
+
+    private final LinkedHashMap<Integer, Signature> signatures = new LinkedHashMap<Integer, Signature>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Signature> eldest) {
+            return size() > MAX_SIGNATURES;
+        }
+    };
+
+    private long logged;
+    private long droppedLogs;
+    private long coalescedKeys;
+    private long recorded;
+    private long suppressed;
+
+    CrashReporter(Sink sink) {
+        this.sink = sink;
+    }
+
+    synchronized void configure(boolean breadcrumbs, int capacity, boolean dedup, long intervalMillis, int maxPerMinute) {
+        if (this.breadcrumbs && !breadcrumbs) flush();
+        this.breadcrumbs = breadcrumbs;
+        capacity = Math.max(1, capacity);
+        if (capacity != ring.length) {
+            flush();
+            ring = new String[capacity];
+            ringTimes = new long[capacity];
+        }
+        if (!dedup) signatures.clear();
+        this.dedup = dedup;
+        this.intervalMillis = Math.max(0L, intervalMillis);
+        this.maxPerMinute = Math.max(1, maxPerMinute);
+    }
+
+    synchronized void log(String message) {
+        logged++;
+        if (!breadcrumbs) {
+            sink.log(message);
+            return;
+        }
+
+        int index = (head + size) % ring.length;
+        if (size == ring.length) {
+            head = (head + 1) % ring.length;
+            droppedLogs++;
+        } else {
+            size++;
+        }
+        ring[index] = message;
+        ringTimes[index] = System.currentTimeMillis();
+    }
+
+    synchronized void setCustomKey(String key, String value) {
+        if (!breadcrumbs) {
+            sink.setCustomKey(key, value);
+            return;
+        }
+        if (keys.put(key, value) != null) coalescedKeys++;
+    }
+
+    /**
+     * Records an exception unless deduplication is on and its signature was reported too recently.
+     * The exception is only built once it is known to be reported.
+     */
+    synchronized boolean recordException(String message, StackTraceElement[] stack, long now) {
+        if (!dedup) {
+            recorded++;
+            report(message, stack);
+            return true;
+        }
+
+        int hash = 31 * String.valueOf(message).hashCode() + (stack != null ? Arrays.hashCode(stack) : 0);
+        Signature signature = signatures.get(hash);
+        if (signature == null) {
+            signature = new Signature();
+            signature.lastReported = Long.MIN_VALUE;
+            signatures.put(hash, signature);
+        }
+        signature.total++;
+
+        if (now - windowStart >= WINDOW_MILLIS) {
+            windowStart = now;
+            windowCount = 0;
+        }
+        boolean due = signature.lastReported == Long.MIN_VALUE || now - signature.lastReported >= intervalMillis;
+        if (!due || windowCount >= maxPerMinute) {
+            signature.suppressed++;
+            suppressed++;
+            return false;
+        }
+
+        windowCount++;
+        recorded++;
+        signature.lastReported = now;
+        // Custom keys stick to every later report, so a report without repeats must reset it.
+        keys.put(REPEATS_KEY, String.valueOf(signature.suppressed));
+        signature.suppressed = 0;
+        report(message, stack);
+        return true;
+    }
+
+    private void report(String message, StackTraceElement[] stack) {
+        flush();
+        RuntimeException exception = new RuntimeException(message);
+        if (stack != null) exception.setStackTrace(stack);
+        sink.recordException(exception);
+    }
+
+    synchronized void flush() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % ring.length;
+            sink.log("[-" + (now - ringTimes[index]) + "ms] " + ring[index]);
+            ring[index] = null;
+        }
+        head = 0;
+        size = 0;
+
+        for (Map.Entry<String, String> entry : keys.entrySet()) {
+            sink.setCustomKey(entry.getKey(), entry.getValue());
+        }
+        keys.clear();
+    }
+
+    /**
+     * Flushes breadcrumbs before handing a crash to the previously installed handler, which is
+     * where Crashlytics picks it up.
+     */
+    void installCrashHandler() {
+        final Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable error) {
+                try {
+                    flush();
+                } catch (RuntimeException ignored) {
+                    // Never let the flush hide the original crash.
+                }
+                if (previous != null) previous.uncaughtException(thread, error);
+            }
+        });
+    }
+
+    synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("breadcrumbs", breadcrumbs);
+        stats.put("buffered_logs", size);
+        stats.put("logged", (int) logged);
+        stats.put("dropped_logs", (int) droppedLogs);
+        stats.put("pending_keys", keys.size());
+        stats.put("coalesced_keys", (int) coalescedKeys);
+        stats.put("exceptions_recorded", (int) recorded);
+        stats.put("exceptions_suppressed", (int) suppressed);
+        stats.put("signatures", signatures.size());
+        return stats;
+    }
+}
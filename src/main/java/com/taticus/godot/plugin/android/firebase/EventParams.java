@@ -0,0 +1,78 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns a GDScript Dictionary of event parameters into calls on a {@link Target}, which the
+ * plugin backs with android.os.Bundle. Parameter names are validated and interned, string values
+ * truncated to Analytics' limits, numbers widened to long or double, booleans sent as 0/1 and
+ * arrays of Dictionaries written as arrays of nested parameter sets.
+ */
+final class EventParams {
+
+    interface Target<B> {
+        B create();
+
+        void putString(B params, String key, String value);
+
+        void putLong(B params, String key, long value);
+
+        void putDouble(B params, String key, double value);
+
+        void putArray(B params, String key, List<B> items);
+
+        void dropped(String event, String key, String reason);
+    }
+
+    private EventParams() {
+    }
+
+    static <B> B build(String event, Map<String, Object> values, AnalyticsNames names, Target<B> target) {
+        B params = target.create();
+        int count = 0;
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            String key = names.intern(entry.getKey());
+            if (key == null) {
+                target.dropped(event, entry.getKey(), "invalid name");
+                continue;
+            }
+            if (++count > AnalyticsNames.MAX_PARAMETERS) {
+                target.dropped(event, entry.getKey(), "more than " + AnalyticsNames.MAX_PARAMETERS + " parameters");
+                break;
+            }
+
+            Object value = entry.getValue();
+            if (value instanceof Object[]) {
+                Object[] items = (Object[]) value;
+                List<B> nested = new ArrayList<>(items.length);
+                for (Object item : items) {
+                    if (item instanceof Map) {
+                        @SuppressWarnings("unchecked")
+                        Map<String, Object> itemValues = (Map<String, Object>) item;
+                        nested.add(build(event, itemValues, names, target));
+                    }
+                }
+                target.putArray(params, key, nested);
+            } else if (value instanceof String) {
+                target.putString(params, key, AnalyticsNames.truncate((String) value));
+            } else if (value != null) {
+                put(target, params, key, value);
+            }
+        }
+        return params;
+    }
+
+    static <B> void put(Target<B> target, B params, String key, Object value) {
+        if (value instanceof Integer || value instanceof Long) {
+            target.putLong(params, key, ((Number) value).longValue());
+        } else if (value instanceof Number) {
+            target.putDouble(params, key, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            target.putLong(params, key, (Boolean) value ? 1L : 0L);
+        } else {
+            target.putString(params, key, String.valueOf(value));
+        }
+    }
+}
@@ -1,11 +1,19 @@
 package com.taticus.godot.plugin.android.firebase;
 
 import android.annotation.SuppressLint;
+import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Debug;
 import android.os.Parcelable;
 import android.util.Log;
+import android.view.Choreographer;
 
 import androidx.annotation.NonNull;
 
@@ -34,29 +42,39 @@ import com.google.firebase.perf.metrics.Trace;
 import com.google.firebase.perf.transport.TransportManager;
 import com.google.firebase.perf.util.Timer;
 
+import org.godotengine.godot.Dictionary;
 import org.godotengine.godot.Godot;
 import org.godotengine.godot.plugin.GodotPlugin;
 import org.godotengine.godot.plugin.SignalInfo;
 
-import java.io.ByteArrayInputStream;
+import javax.microedition.khronos.opengles.GL10;
+
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import okhttp3.Call;
-import okhttp3.Callback;
-import okhttp3.MediaType;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
-import okhttp3.ResponseBody;
 
 public class FirebasePlugin extends GodotPlugin {
 
@@ -69,30 +87,622 @@ public class FirebasePlugin extends GodotPlugin {
     private final SignalInfo idTokenLoadedSignal = new SignalInfo("id_token_loaded", String.class);
     private final SignalInfo idTokenFailedSignal = new SignalInfo("id_token_failed", String.class);
     private final SignalInfo requestCompleted = new SignalInfo("request_completed", Integer.class, String.class);
+    private final SignalInfo httpResponseSignal = new SignalInfo("http_response", Integer.class, Integer.class, String.class, Dictionary.class);
+    private final SignalInfo httpResponseRawSignal = new SignalInfo("http_response_raw", Integer.class, Integer.class, byte[].class, Dictionary.class);
+    private final SignalInfo httpResponseJsonSignal = new SignalInfo("http_response_json", Integer.class, Integer.class, Object.class, Dictionary.class);
+    private final SignalInfo batchCompletedSignal = new SignalInfo("batch_completed", Integer.class, Object[].class, Boolean.class);
+    private final SignalInfo downloadProgressSignal = new SignalInfo("download_progress", Integer.class, Integer.class, Integer.class);
+    private final SignalInfo downloadCompletedSignal = new SignalInfo("download_completed", Integer.class, Integer.class, String.class);
+    private final SignalInfo offlineRequestDeliveredSignal = new SignalInfo("offline_request_delivered", String.class, Integer.class, String.class);
+
+    private final ExecutorService initExecutor = Executors.newSingleThreadExecutor();
+    private volatile long coreInitNanos;
+    private volatile long constructorNanos;
+
+    private final LazyComponent<FirebaseAuth> mAuth = new LazyComponent<>(new LazyComponent.Factory<FirebaseAuth>() {
+        @Override
+        public FirebaseAuth create() {
+            FirebaseAuth auth = FirebaseAuth.getInstance();
+            auth.addAuthStateListener(new FirebaseAuth.AuthStateListener() {
+                @Override
+                public void onAuthStateChanged(@NonNull FirebaseAuth auth) {
+                    idTokens.invalidate();
+                }
+            });
+            return auth;
+        }
+    });
+    private final LazyComponent<FirebaseCrashlytics> mCrashlytics = new LazyComponent<>(new LazyComponent.Factory<FirebaseCrashlytics>() {
+        @Override
+        public FirebaseCrashlytics create() {
+            FirebaseCrashlytics crashlytics = FirebaseCrashlytics.getInstance();
+            // Installed after Crashlytics' own handler so breadcrumbs are flushed before it runs.
+            crashReporter.installCrashHandler();
+            return crashlytics;
+        }
+    });
+    private final LazyComponent<FirebaseAnalytics> mAnalytics = new LazyComponent<>(new LazyComponent.Factory<FirebaseAnalytics>() {
+        @Override
+        public FirebaseAnalytics create() {
+            return FirebaseAnalytics.getInstance(Objects.requireNonNull(getActivity()));
+        }
+    });
+    private final LazyComponent<FirebasePerformance> mPerformance = new LazyComponent<>(new LazyComponent.Factory<FirebasePerformance>() {
+        @Override
+        public FirebasePerformance create() {
+            return FirebasePerformance.getInstance();
+        }
+    });
+
+    private volatile HttpClientConfig httpConfig = new HttpClientConfig();
+    private volatile String[] prewarmHosts = new String[0];
+    private volatile HttpResponseCache responseCache;
+    private final AtomicInteger requestIds = new AtomicInteger();
+    private final AtomicInteger batchIds = new AtomicInteger();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final PluginMetrics stats = new PluginMetrics();
+    private volatile ScheduledFuture<?> statsLogTask;
+    private final IdTokenCache idTokens = new IdTokenCache(new IdTokenCache.Source() {
+        @Override
+        public void fetch(boolean forceRefresh, final IdTokenCache.Callback callback) {
+            try {
+                FirebaseUser user = getCurrentUser();
+                if (user == null) {
+                    Log.d(TAG, "There is no logged user");
+                    callback.onError("User not loaded");
+                    return;
+                }
+
+                Log.d(TAG, "Identified user: " + user.getDisplayName());
+
+                final long started = System.nanoTime();
+                user
+                        .getIdToken(forceRefresh)
+                        .addOnCompleteListener(new OnCompleteListener<GetTokenResult>() {
+                            public void onComplete(@NonNull Task<GetTokenResult> task) {
+                                stats.histogram("auth.id_token_fetch").recordNanos(System.nanoTime() - started);
+                                if (task.isSuccessful()) {
+                                    GetTokenResult result = Objects.requireNonNull(task.getResult());
+                                    String idToken = result.getToken();
+                                    if (idToken != null) {
+                                        callback.onToken(idToken, TimeUnit.SECONDS.toMillis(result.getExpirationTimestamp()));
+                                    } else {
+                                        callback.onError("Token Unavailable");
+                                    }
+                                } else {
+                                    String msg = "Get Id Token in failed " + Objects.requireNonNull(task.getException()).getMessage();
+                                    Log.w(TAG, msg);
+                                    callback.onError(msg);
+                                }
+                            }
+                        });
+            } catch (Exception e) {
+                Log.e(TAG, "Error in get_id_token: " + e.getMessage());
+                callback.onError(e.getMessage());
+            }
+        }
+    }, timer);
+    private final HttpServices http = new HttpServices(httpConfig.apply(new OkHttpClient.Builder())
+            .connectionPool(httpConfig.newPool())
+            .dispatcher(newDispatcher())
+            .eventListenerFactory(HttpPhases.FACTORY)
+            .build(), timer, idTokens, stats);
+    private final HttpRequests requests = new HttpRequests(http, new HttpRequests.Warnings() {
+        @Override
+        public void warn(String message) {
+            Log.w(TAG, message);
+        }
+    });
+
+    private final SignalQueue signals = new SignalQueue();
+    private volatile int maxSignalsPerFrame = 32;
+    private volatile long signalBudgetNanos = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private final SignalQueue.Emitter signalEmitter = new SignalQueue.Emitter() {
+        @Override
+        public void emit(String signal, Object[] args) {
+            long started = System.nanoTime();
+            try {
+                emitSignal(signal, args);
+            } catch (Exception e) {
+                Log.e(TAG, "Unable to emit " + signal, e);
+            }
+            stats.histogram("signal.emit").recordNanos(System.nanoTime() - started);
+        }
+    };
+
+    private final HttpResponseListener httpResponseListener = new HttpResponseListener() {
+        @Override
+        public void onHttpResponse(final int id, final HttpResult result) {
+            requests.remove(id);
+            if (result.code == 0) Log.d(TAG, "http error: " + result.body);
+            signals.post(httpResponseSignal.getName(), id, result.code, result.body, responseInfo(result));
+            signals.post(requestCompleted.getName(), result.code, result.body);
+        }
+    };
+
+    private final HttpResponseListener httpRawResponseListener = new HttpResponseListener() {
+        @Override
+        public void onHttpResponse(final int id, final HttpResult result) {
+            requests.remove(id);
+            Dictionary info = responseInfo(result);
+            if (result.code == 0) {
+                Log.d(TAG, "http error: " + result.body);
+                info.put("error", result.body);
+            }
+            signals.post(httpResponseRawSignal.getName(), id, result.code, result.bytes != null ? result.bytes : new byte[0], info);
+        }
+    };
+
+    private final HttpResponseListener prewarmListener = new HttpResponseListener() {
+        @Override
+        public void onHttpResponse(int id, HttpResult result) {
+            requests.remove(id);
+            if (result.code == 0) Log.d(TAG, "prewarm failed: " + result.body);
+        }
+    };
+
+    private final HttpResponseListener httpJsonResponseListener = new HttpResponseListener() {
+        @Override
+        public void onHttpResponse(final int id, final HttpResult result) {
+            requests.remove(id);
+            Dictionary info = responseInfo(result);
+            // Text results of a json request only ever hold an error message.
+            if (result.body != null) {
+                Log.d(TAG, "http error: " + result.body);
+                info.put("error", result.body);
+            }
+            signals.post(httpResponseJsonSignal.getName(), id, result.code, result.json, info);
+        }
+    };
+
+    private final HttpBatch.Listener batchListener = new HttpBatch.Listener() {
+        @Override
+        public void onBatchCompleted(int batchId, List<Map<String, Object>> results, boolean complete) {
+            Object[] items = new Object[results.size()];
+            for (int i = 0; i < items.length; i++) {
+                requests.remove((Integer) results.get(i).get("id"));
+                Dictionary item = new Dictionary();
+                item.putAll(results.get(i));
+                items[i] = item;
+            }
 
-    private FirebaseAuth mAuth;
-    private FirebaseCrashlytics mCrashlytics;
-    private FirebaseAnalytics mAnalytics;
-    private FirebasePerformance mPerformance;
+            signals.post(batchCompletedSignal.getName(), batchId, items, complete);
+        }
+    };
+
+    private final UrlPatterns urlPatterns = new UrlPatterns();
+
+    private final HttpPhases.MetricFactory httpMetrics = new HttpPhases.MetricFactory() {
+        @Override
+        public HttpPhases.Metric create(Request request) {
+            // Called from the game thread, so never create Performance here; requests made
+            // before it is ready are not measured.
+            FirebasePerformance performance = mPerformance.getIfReady();
+            if (performance == null) return null;
+
+            String url = urlPatterns.normalize(request.url().scheme(), request.url().host(), request.url().encodedPath());
+            final HttpMetric metric = performance.newHttpMetric(url, request.method());
+            return new HttpPhases.Metric() {
+                @Override
+                public void start() {
+                    metric.start();
+                }
 
-    private final OkHttpClient client = new OkHttpClient.Builder().connectTimeout(15L, TimeUnit.SECONDS).build();
+                @Override
+                public void requestComplete() {
+                    metric.markRequestComplete();
+                }
+
+                @Override
+                public void responseStart() {
+                    metric.markResponseStart();
+                }
+
+                @Override
+                public void stop(int code, long requestBytes, long responseBytes, String contentType) {
+                    if (code > 0) metric.setHttpResponseCode(code);
+                    metric.setRequestPayloadSize(requestBytes);
+                    metric.setResponsePayloadSize(responseBytes);
+                    if (contentType != null) metric.setResponseContentType(contentType);
+                    metric.stop();
+                }
+            };
+        }
+    };
+
+    private final FrameSampler frameSampler = new FrameSampler(FrameSampler.SYSTEM_CLOCK, new FrameSampler.HeapProbe() {
+        @Override
+        public long usedBytes() {
+            // Godot allocates almost everything natively, so the Java heap alone says little.
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory() + Debug.getNativeHeapAllocatedSize();
+        }
+    }, new FrameSampler.Sink() {
+        @Override
+        public void emit(final String scene, final Map<String, Long> values) {
+            timer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    FirebasePerformance performance = mPerformance.get();
+                    if (performance == null) return;
+                    Trace trace = performance.newTrace(frameTraceName(scene));
+                    trace.start();
+                    trace.putAttribute("scene", limit(scene, 100));
+                    for (Map.Entry<String, Long> entry : values.entrySet()) {
+                        trace.putMetric(entry.getKey(), entry.getValue());
+                    }
+                    trace.stop();
+                }
+            });
+        }
+    });
+    private volatile boolean choreographerFrames;
+    private volatile boolean renderFrames;
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!choreographerFrames) return;
+            frameSampler.onFrame(frameTimeNanos);
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+
+    // Only opened, and connectivity only watched, once durable requests are used.
+    private volatile OfflineRequestQueue offlineQueue;
+    private ConnectivityManager.NetworkCallback offlineReplayCallback;
+    private final ConcurrentHashMap<String, Integer> offlineRequestIds = new ConcurrentHashMap<>();
+
+    private final OfflineRequestQueue.Sender offlineSender = new OfflineRequestQueue.Sender() {
+        @Override
+        public void send(OfflineRequestQueue.Record record, final OfflineRequestQueue.Result result) {
+            HttpOptions httpOptions = new HttpOptions();
+            httpOptions.coalesce = false;
+            httpOptions.priority = "background";
+            httpOptions.auth = record.auth;
+            final Request request;
+            try {
+                request = requests.build(record.url, record.headers, record.method, record.body, httpOptions);
+            } catch (RuntimeException e) {
+                // A record that can no longer be turned into a request would block the queue forever.
+                result.onResult(400, String.valueOf(e.getMessage()));
+                return;
+            }
+            requests.submit(requestIds.incrementAndGet(), request, httpOptions, new HttpResponseListener() {
+                @Override
+                public void onHttpResponse(int id, HttpResult response) {
+                    requests.remove(id);
+                    result.onResult(response.code, response.body);
+                }
+            });
+        }
+    };
+
+    private final OfflineRequestQueue.Listener offlineListener = new OfflineRequestQueue.Listener() {
+        @Override
+        public void onDelivered(OfflineRequestQueue.Record record, int code, String body) {
+            Integer id = offlineRequestIds.remove(record.key);
+            if (id != null) {
+                Dictionary info = new Dictionary();
+                info.put("cached", false);
+                info.put("retries", 0);
+                info.put("durable", true);
+                info.put("idempotency_key", record.key);
+                signals.post(httpResponseSignal.getName(), id, code, body, info);
+                signals.post(requestCompleted.getName(), code, body);
+            }
+            signals.post(offlineRequestDeliveredSignal.getName(), record.key, code, body);
+        }
+    };
+
+    private final CrashReporter crashReporter = new CrashReporter(new CrashReporter.Sink() {
+        @Override
+        public void log(final String message) {
+            mCrashlytics.whenReady(new LazyComponent.Action<FirebaseCrashlytics>() {
+                @Override
+                public void run(FirebaseCrashlytics crashlytics) {
+                    crashlytics.log(message);
+                }
+            });
+        }
 
-    private final HashMap<Integer, HttpMetric> metrics = new HashMap<>();
-    private final HashMap<Integer, Trace> traces = new HashMap<>();
-    private final HashMap<Integer, Bundle> bundles = new HashMap<>();
+        @Override
+        public void setCustomKey(final String key, final String value) {
+            mCrashlytics.whenReady(new LazyComponent.Action<FirebaseCrashlytics>() {
+                @Override
+                public void run(FirebaseCrashlytics crashlytics) {
+                    crashlytics.setCustomKey(key, value);
+                }
+            });
+        }
+
+        @Override
+        public void recordException(final Throwable exception) {
+            mCrashlytics.whenReady(new LazyComponent.Action<FirebaseCrashlytics>() {
+                @Override
+                public void run(FirebaseCrashlytics crashlytics) {
+                    crashlytics.recordException(exception);
+                }
+            });
+        }
+    });
+
+    private final AnalyticsPipeline analytics = new AnalyticsPipeline(new AnalyticsPipeline.Sink() {
+        @Override
+        public void log(AnalyticsPipeline.Event event) {
+            Bundle bundle;
+            if (event.payload instanceof Map) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> params = (Map<String, Object>) event.payload;
+                bundle = EventParams.build(event.name, params, analyticsNames, bundleTarget);
+            } else {
+                bundle = event.payload != null ? (Bundle) event.payload : new Bundle();
+            }
+            if (event.keys != null) {
+                for (int i = 0; i < event.keys.length; i++) {
+                    EventParams.put(bundleTarget, bundle, event.keys[i], event.values[i]);
+                }
+            }
+            if (event.count > 1) {
+                bundle.putLong("count", event.count);
+            }
+            FirebaseAnalytics firebaseAnalytics = mAnalytics.get();
+            if (firebaseAnalytics != null) {
+                long started = System.nanoTime();
+                firebaseAnalytics.logEvent(event.name, bundle);
+                stats.histogram("analytics.log_event").recordNanos(System.nanoTime() - started);
+            }
+        }
+    }, 1024);
+
+    private final AnalyticsNames analyticsNames = new AnalyticsNames();
+
+    private final HandleRegistry<HttpMetric> metrics = new HandleRegistry<>();
+    private final HandleRegistry<Trace> traces = new HandleRegistry<>();
+    private final HandleRegistry<TraceAggregator.Span> spans = new HandleRegistry<>();
+    // Returned by new_trace and new_http_metric when a trace is not sampled; every call with it is a no-op.
+    private static final int SAMPLED_OUT = -2;
+    private final TraceAggregator traceAggregation = new TraceAggregator();
+    private final TraceAggregator httpMetricAggregation = new TraceAggregator();
+    private volatile ScheduledFuture<?> aggregationFlushTask;
+    private final TraceAggregator.Sink aggregationSink = new TraceAggregator.Sink() {
+        @Override
+        public void emit(String name, Map<String, String> attributes, Map<String, Long> values) {
+            FirebasePerformance performance = mPerformance.get();
+            if (performance == null) return;
+            Trace trace = performance.newTrace(limit(name, 100));
+            trace.start();
+            for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                trace.putAttribute(entry.getKey(), limit(entry.getValue(), 100));
+            }
+            for (Map.Entry<String, Long> entry : values.entrySet()) {
+                trace.putMetric(entry.getKey(), entry.getValue());
+            }
+            trace.stop();
+        }
+    };
+    private final Runnable flushAggregation = new Runnable() {
+        @Override
+        public void run() {
+            traceAggregation.flush(aggregationSink);
+            httpMetricAggregation.flush(aggregationSink);
+        }
+    };
+    private final HandleRegistry<Bundle> bundles = new HandleRegistry<>();
+    private volatile long handleLeakAgeMillis = TimeUnit.MINUTES.toMillis(5);
 
     public FirebasePlugin(Godot godot) {
         super(godot);
+        http.coalescer.setKeyHeaders(Arrays.asList("Authorization", "Accept", "Accept-Encoding", "Accept-Language"));
+        http.jsonObjects = new JsonParser.Factory() {
+            @Override
+            public Map<String, Object> newObject() {
+                return new Dictionary();
+            }
+        };
+        long started = System.nanoTime();
         try {
             FirebaseApp.initializeApp(Objects.requireNonNull(getActivity()));
-            mAuth = FirebaseAuth.getInstance();
-            mCrashlytics = FirebaseCrashlytics.getInstance();
-            mAnalytics = FirebaseAnalytics.getInstance(getActivity());
-            mPerformance = FirebasePerformance.getInstance();
+            coreInitNanos = System.nanoTime() - started;
+
+            // Components are created off this thread; Performance is only created on first use
+            // or when http_enable_auto_metrics turns it on.
+            mCrashlytics.start(initExecutor);
+            mAuth.start(initExecutor);
+            mAnalytics.start(initExecutor);
             Log.d(TAG, "Firebase initialized.");
         } catch (Exception e) {
             Log.e(TAG, "ERROR " + e.getMessage());
         }
+        openOfflineQueueIfPending();
+        registerGauges();
+        scheduleAggregationFlush(60);
+        constructorNanos = System.nanoTime() - started;
+    }
+
+    private void registerGauges() {
+        stats.gauge("http.queued", new PluginMetrics.Gauge() {
+            @Override
+            public long value() {
+                return http.scheduler.queuedCount();
+            }
+        });
+        stats.gauge("http.running", new PluginMetrics.Gauge() {
+            @Override
+            public long value() {
+                return http.scheduler.runningCount();
+            }
+        });
+        stats.gauge("http.okhttp_queued", new PluginMetrics.Gauge() {
+            @Override
+            public long value() {
+                return http.client.dispatcher().queuedCallsCount();
+            }
+        });
+        stats.gauge("http.okhttp_running", new PluginMetrics.Gauge() {
+            @Override
+            public long value() {
+                return http.client.dispatcher().runningCallsCount();
+            }
+        });
+        stats.gauge("http.connections", new PluginMetrics.Gauge() {
+            @Override
+            public long value() {
+                return http.client.connectionPool().connectionCount();
+            }
+        });
+        stats.gauge("http.idle_connections", new PluginMetrics.Gauge() {
+            @Override
+            public long value() {
+                return http.client.connectionPool().idleConnectionCount();
+            }
+        });
+        stats.gauge("perf.pending_summaries", new PluginMetrics.Gauge() {
+            @Override
+            public long value() {
+                return traceAggregation.pendingCount() + httpMetricAggregation.pendingCount();
+            }
+        });
+        stats.gauge("perf.dropped_summaries", new PluginMetrics.Gauge() {
+            @Override
+            public long value() {
+                return traceAggregation.droppedCount() + httpMetricAggregation.droppedCount();
+            }
+        });
+        stats.gauge("handles.spans", new PluginMetrics.Gauge() {
+            @Override
+            public long value() {
+                return spans.size();
+            }
+        });
+        stats.gauge("signals.pending", new PluginMetrics.Gauge() {
+            @Override
+            public long value() {
+                return signals.size();
+            }
+        });
+        stats.gauge("handles.bundles", new PluginMetrics.Gauge() {
+            @Override
+            public long value() {
+                return bundles.size();
+            }
+        });
+        stats.gauge("handles.traces", new PluginMetrics.Gauge() {
+            @Override
+            public long value() {
+                return traces.size();
+            }
+        });
+        stats.gauge("handles.http_metrics", new PluginMetrics.Gauge() {
+            @Override
+            public long value() {
+                return metrics.size();
+            }
+        });
+    }
+
+    public Dictionary get_plugin_stats() {
+        return toDictionary(stats.snapshot());
+    }
+
+    public void set_plugin_stats_logging(int interval_seconds) {
+        ScheduledFuture<?> previous = statsLogTask;
+        if (previous != null) previous.cancel(false);
+        statsLogTask = null;
+        if (interval_seconds <= 0) return;
+
+        statsLogTask = timer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                Log.d(TAG, "Plugin stats: " + stats.snapshot());
+            }
+        }, interval_seconds, interval_seconds, TimeUnit.SECONDS);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Dictionary toDictionary(Map<String, Object> map) {
+        Dictionary dictionary = new Dictionary();
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            Object value = entry.getValue();
+            dictionary.put(entry.getKey(), value instanceof Map ? toDictionary((Map<String, Object>) value) : value);
+        }
+        return dictionary;
+    }
+
+    public Dictionary get_startup_timings() {
+        stats.call("get_startup_timings");
+        Dictionary timings = new Dictionary();
+        timings.put("core_ms", coreInitNanos / 1e6);
+        timings.put("constructor_ms", constructorNanos / 1e6);
+        timings.put("auth", componentTimings(mAuth));
+        timings.put("crashlytics", componentTimings(mCrashlytics));
+        timings.put("analytics", componentTimings(mAnalytics));
+        timings.put("performance", componentTimings(mPerformance));
+        return timings;
+    }
+
+    private static Dictionary componentTimings(LazyComponent<?> component) {
+        Dictionary timings = new Dictionary();
+        timings.putAll(component.stats());
+        return timings;
+    }
+
+    private File offlineQueueDirectory() {
+        return new File(Objects.requireNonNull(getActivity()).getFilesDir(), "http-wal");
+    }
+
+    /**
+     * Opens the queue at startup only when an earlier run left requests in it.
+     */
+    private void openOfflineQueueIfPending() {
+        final File directory = offlineQueueDirectory();
+        timer.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!OfflineRequestQueue.hasSegments(directory)) return;
+                OfflineRequestQueue queue = openOfflineQueue(directory);
+                if (queue != null) queue.replay();
+            }
+        });
+    }
+
+    /**
+     * Returns the queue, opening it on first use. Only called on the timer thread.
+     */
+    private OfflineRequestQueue openOfflineQueue(File directory) {
+        if (offlineQueue != null) return offlineQueue;
+        try {
+            offlineQueue = new OfflineRequestQueue(directory, timer, offlineSender, offlineListener);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to open offline request queue: " + e.getMessage());
+            return null;
+        }
+
+        try {
+            ConnectivityManager connectivity = (ConnectivityManager) Objects.requireNonNull(getActivity()).getSystemService(Context.CONNECTIVITY_SERVICE);
+            ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    OfflineRequestQueue queue = offlineQueue;
+                    if (queue != null) queue.replay();
+                }
+            };
+            connectivity.registerNetworkCallback(
+                    new NetworkRequest.Builder().addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET).build(),
+                    callback);
+            offlineReplayCallback = callback;
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to watch connectivity: " + e.getMessage());
+        }
+        return offlineQueue;
+    }
+
+    private static Dispatcher newDispatcher() {
+        // HttpScheduler enforces the real limits; keep OkHttp from queueing behind it.
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(64);
+        dispatcher.setMaxRequestsPerHost(64);
+        return dispatcher;
     }
 
     @Override
@@ -107,7 +717,14 @@ public class FirebasePlugin extends GodotPlugin {
                 loginFailedSignal,
                 idTokenLoadedSignal,
                 idTokenFailedSignal,
-                requestCompleted));
+                requestCompleted,
+                httpResponseSignal,
+                httpResponseRawSignal,
+                httpResponseJsonSignal,
+                batchCompletedSignal,
+                downloadProgressSignal,
+                downloadCompletedSignal,
+                offlineRequestDeliveredSignal));
     }
 
     @Override
@@ -116,7 +733,38 @@ public class FirebasePlugin extends GodotPlugin {
                 "load",
                 "load_library",
                 "get_plugin_methods",
+                "get_startup_timings",
+                "get_plugin_stats",
+                "set_plugin_stats_logging",
+                "set_signal_budget",
+                "start_frame_sampler",
+                "stop_frame_sampler",
+                "mark_scene",
+                "get_frame_stats",
                 "http_request",
+                "http_request_with_options",
+                "http_request_raw",
+                "http_request_batch",
+                "http_cancel",
+                "http_cancel_all",
+                "http_set_max_concurrency",
+                "configure_http",
+                "prewarm_connections",
+                "http_set_host_concurrency",
+                "http_set_retry_policy",
+                "http_set_circuit_breaker",
+                "http_retry_stats",
+                "http_breaker_states",
+                "http_set_coalesce_headers",
+                "register_header_profile",
+                "remove_header_profile",
+                "http_download",
+                "http_cache_enable",
+                "http_cache_clear",
+                "http_cache_stats",
+                "http_offline_queue_stats",
+                "http_enable_auto_metrics",
+                "http_set_url_patterns",
                 "login_with_play_games",
                 "login_with_google",
                 "is_logged_in",
@@ -125,6 +773,7 @@ public class FirebasePlugin extends GodotPlugin {
                 "get_email",
                 "get_uid",
                 "get_id_token",
+                "get_cached_id_token",
                 "sign_out",
 
                 "set_analytics_user_id",
@@ -136,10 +785,18 @@ public class FirebasePlugin extends GodotPlugin {
                 "put_bundle_parcelable_array",
                 "log_event_bundle",
                 "log_event",
+                "log_event_dict",
+                "configure_analytics",
+                "set_analytics_sampling",
+                "flush_analytics",
+                "get_analytics_stats",
 
                 "record_exception",
                 "log",
                 "log_set_custom_key",
+                "record_exception_with_stack",
+                "configure_crashlytics",
+                "get_crashlytics_stats",
 
                 "new_http_metric",
                 "http_metric_start",
@@ -161,101 +818,432 @@ public class FirebasePlugin extends GodotPlugin {
                 "trace_remove_attribute",
                 "trace_increment_metric",
                 "trace_get_long_metric",
-                "trace_put_metric"
+                "trace_put_metric",
+                "set_trace_rule",
+                "set_http_metric_rule",
+                "clear_performance_rules",
+                "set_aggregation_interval",
+                "flush_aggregated_traces",
+
+                "set_handle_leak_age",
+                "get_handle_stats"
         );
     }
 
     @SuppressLint("UnsafeDynamicallyLoadedCode")
     public void load(String libname) {
+        stats.call("load");
         System.load(libname);
     }
 
     public void load_library(String libname) {
+        stats.call("load_library");
         System.loadLibrary(libname);
     }
 
     public String[] get_plugin_methods() {
+        stats.call("get_plugin_methods");
         List<String> list = getPluginMethods();
         String[] array = new String[list.size()];
         for (int i = 0; i < list.size(); i++) array[i] = list.get(i);
         return array;
     }
 
-    public void http_request(String url, String[] headers, String method, String body) {
-        Request.Builder builder = new Request.Builder()
-                .url(url);
+    public int http_request(String url, String[] headers, String method, String body) {
+        stats.call("http_request");
+        return httpRequest(url, headers, method, body, null);
+    }
+
+    public int http_request_with_options(String url, String[] headers, String method, String body, Dictionary options) {
+        stats.call("http_request_with_options");
+        return httpRequest(url, headers, method, body, options);
+    }
 
-        String contentType = "application/json";
-        for (String header : headers) {
-            String[] headerData = header.split(": ");
-            if (headerData[0].toLowerCase().equals("content-type")) {
-                contentType = headerData[1];
+    /**
+     * Shared by the public entry points, which count the call themselves.
+     */
+    private int httpRequest(String url, String[] headers, String method, String body, Dictionary options) {
+        HttpOptions httpOptions = HttpOptions.parse(options, requests.warnings);
+        Request request = requests.build(url, headers, method, body, httpOptions);
+        int id = requestIds.incrementAndGet();
+        if (httpOptions.durable) {
+            if (httpOptions.responseFormat != HttpResult.FORMAT_TEXT) {
+                // Delivery may happen after a restart, where only offline_request_delivered reports it.
+                Log.w(TAG, "response_format is ignored for durable requests");
+                httpOptions.responseFormat = HttpResult.FORMAT_TEXT;
+                httpOptions.jsonPointer = null;
             }
+            enqueueDurable(id, request, body, httpOptions);
+        } else {
+            requests.submit(id, request, httpOptions, responseListener(httpOptions));
+        }
+        return id;
+    }
 
-            builder.addHeader(headerData[0], headerData[1]);
+    private HttpResponseListener responseListener(HttpOptions httpOptions) {
+        switch (httpOptions.responseFormat) {
+            case HttpResult.FORMAT_JSON:
+                return httpJsonResponseListener;
+            case HttpResult.FORMAT_BYTES:
+                return httpRawResponseListener;
+            default:
+                return httpResponseListener;
         }
-        builder.method(method, body != null && method.equals("POST") ? RequestBody.create(MediaType.get(contentType), body) : null);
+    }
 
-        Request request = builder.build();
+    public int http_request_raw(String url, String[] headers, String method, byte[] body, Dictionary options) {
+        stats.call("http_request_raw");
+        HttpOptions httpOptions = HttpOptions.parse(options, HttpResult.FORMAT_BYTES, requests.warnings);
+        if (httpOptions.durable) Log.w(TAG, "durable is not supported for raw requests, sending directly");
 
-        client.newCall(request).enqueue(new Callback() {
-            @Override
-            public void onFailure(Call call, final IOException e) {
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        Log.d(TAG, "http error", e);
-                        emitSignal(requestCompleted.getName(), 0, e.getMessage());
-                    }
-                });
-            }
+        Request request = requests.buildRaw(url, headers, method, body, httpOptions);
+        int id = requestIds.incrementAndGet();
+        requests.submit(id, request, httpOptions, responseListener(httpOptions));
+        return id;
+    }
+
+    private void enqueueDurable(final int id, final Request request, final String body, final HttpOptions httpOptions) {
+        final String key = httpOptions.idempotencyKey != null ? httpOptions.idempotencyKey : UUID.randomUUID().toString();
+        // Recorded from the built request so header profile entries survive a restart.
+        Headers headers = request.headers();
+        boolean addKey = request.header("Idempotency-Key") == null;
+        final String[] recordHeaders = new String[headers.size() + (addKey ? 1 : 0)];
+        for (int i = 0; i < headers.size(); i++) {
+            recordHeaders[i] = headers.name(i) + ": " + headers.value(i);
+        }
+        if (addKey) recordHeaders[headers.size()] = "Idempotency-Key: " + key;
 
+        offlineRequestIds.put(key, id);
+        final File directory = offlineQueueDirectory();
+        timer.execute(new Runnable() {
             @Override
-            public void onResponse(Call call, final Response response) throws IOException {
-                int code = response.code();
-                final ResponseBody body = response.body();
-                final String bodyString;
-                if (body != null) {
-                    if(response.header("content-encoding") != null && Objects.equals(response.header("content-encoding"), "gzip")){
-                        bodyString = decompress(body.bytes());
-                    } else {
-                        bodyString = body.string();
-                    }
-                } else {
-                    bodyString = "";
+            public void run() {
+                OfflineRequestQueue queue = openOfflineQueue(directory);
+                try {
+                    if (queue == null) throw new IOException("Offline request queue is unavailable");
+                    queue.append(key, request.method(), request.url().toString(), recordHeaders, body, httpOptions.auth);
+                    queue.replay();
+                } catch (IOException e) {
+                    // Still try the request once rather than dropping it.
+                    Log.w(TAG, "Unable to persist request: " + e.getMessage());
+                    offlineRequestIds.remove(key);
+                    requests.submit(id, request, httpOptions, httpResponseListener);
                 }
+            }
+        });
+    }
 
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            emitSignal(requestCompleted.getName(), code, bodyString);
-                        } catch (Exception e) {
-                            Log.d(TAG, "http erro", e);
-                            emitSignal(requestCompleted.getName(), 0, e.getMessage());
+    public void http_enable_auto_metrics(boolean enabled) {
+        stats.call("http_enable_auto_metrics");
+        if (enabled) mPerformance.start(initExecutor);
+        http.metrics = enabled ? httpMetrics : null;
+    }
+
+    public void http_set_url_patterns(String[] patterns) {
+        stats.call("http_set_url_patterns");
+        urlPatterns.setPatterns(patterns);
+    }
+
+    public Dictionary http_offline_queue_stats() {
+        stats.call("http_offline_queue_stats");
+        Dictionary stats = new Dictionary();
+        OfflineRequestQueue queue = offlineQueue;
+        if (queue != null) stats.putAll(queue.stats());
+        return stats;
+    }
+
+    public int http_request_batch(Object[] batch_requests, Dictionary options) {
+        stats.call("http_request_batch");
+        final int batchId = batchIds.incrementAndGet();
+        HttpOptions batchOptions = HttpOptions.parse(options, requests.warnings);
+        final HttpBatch batch = new HttpBatch(batchId, batch_requests.length, batchOptions.allOrNothing, batchListener);
+
+        int[] ids = new int[batch_requests.length];
+        Request[] built = new Request[batch_requests.length];
+        HttpOptions[] itemOptions = new HttpOptions[batch_requests.length];
+        String[] errors = new String[batch_requests.length];
+        for (int i = 0; i < batch_requests.length; i++) {
+            ids[i] = requestIds.incrementAndGet();
+            batch.setRequestId(i, ids[i]);
+            if (!(batch_requests[i] instanceof Map)) {
+                errors[i] = "Batch item is not a Dictionary";
+                continue;
+            }
+
+            @SuppressWarnings("unchecked")
+            Map<String, Object> item = (Map<String, Object>) batch_requests[i];
+            Object itemOptionsValue = item.get("options");
+            @SuppressWarnings("unchecked")
+            HttpOptions httpOptions = itemOptionsValue instanceof Map ? HttpOptions.parse((Map<String, Object>) itemOptionsValue, requests.warnings) : batchOptions;
+            String url = Options.getString(item, "url", null);
+            if (url == null) {
+                errors[i] = "Batch item has no url";
+                continue;
+            }
+            try {
+                built[i] = requests.build(
+                        url,
+                        toStringArray(item.get("headers")),
+                        Options.getString(item, "method", "GET"),
+                        Options.getString(item, "body", null),
+                        httpOptions);
+            } catch (IllegalArgumentException e) {
+                errors[i] = "Invalid request: " + e.getMessage();
+                continue;
+            }
+            itemOptions[i] = httpOptions;
+        }
+
+        if (batch_requests.length == 0) {
+            batchListener.onBatchCompleted(batchId, Collections.<Map<String, Object>>emptyList(), true);
+            return batchId;
+        }
+
+        for (int i = 0; i < built.length; i++) {
+            if (built[i] != null) requests.submit(ids[i], built[i], itemOptions[i], batch);
+        }
+        // Reported after every valid item was submitted, so a batch of bad items completes at once.
+        for (int i = 0; i < errors.length; i++) {
+            if (errors[i] != null) {
+                Log.w(TAG, "http_request_batch item " + i + ": " + errors[i]);
+                batch.onHttpResponse(ids[i], HttpResult.failure(errors[i]));
+            }
+        }
+
+        if (batchOptions.timeoutMs > 0) {
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    batch.timeout(new HttpBatch.Canceller() {
+                        @Override
+                        public void cancel(int requestId) {
+                            requests.cancel(requestId);
                         }
-                    }
-                });
+                    });
+                }
+            }, batchOptions.timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        return batchId;
+    }
+
+    private static Dictionary responseInfo(HttpResult result) {
+        Dictionary info = new Dictionary();
+        info.put("cached", result.cached);
+        info.put("retries", result.retries);
+        if (result.phases != null) {
+            Dictionary phases = new Dictionary();
+            phases.putAll(result.phases);
+            info.put("phases", phases);
+        }
+        return info;
+    }
+
+    private static String[] toStringArray(Object value) {
+        if (value instanceof String[]) return (String[]) value;
+        if (!(value instanceof Object[])) return new String[0];
+
+        Object[] values = (Object[]) value;
+        String[] result = new String[values.length];
+        for (int i = 0; i < values.length; i++) result[i] = String.valueOf(values[i]);
+        return result;
+    }
+
+    public boolean http_cancel(int request_id) {
+        stats.call("http_cancel");
+        return requests.cancel(request_id);
+    }
+
+    public void http_cancel_all() {
+        stats.call("http_cancel_all");
+        for (Integer id : requests.ids()) {
+            requests.cancel(id);
+        }
+    }
+
+    public void configure_http(Dictionary options) {
+        stats.call("configure_http");
+        HttpClientConfig previous = httpConfig;
+        HttpClientConfig config = previous.merge(options);
+        OkHttpClient client = http.client;
+        OkHttpClient.Builder builder = config.apply(client.newBuilder());
+
+        // A new pool starts cold, so only replace it when its settings changed.
+        final ConnectionPool oldPool = config.samePool(previous) ? null : client.connectionPool();
+        if (oldPool != null) builder.connectionPool(config.newPool());
+        httpConfig = config;
+        http.client = builder.build();
+
+        if (oldPool != null) {
+            timer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    oldPool.evictAll();
+                }
+            });
+            prewarm(prewarmHosts);
+        }
+    }
+
+    /**
+     * Opens connections to the hosts ahead of the first real request, and again whenever the
+     * app resumes. Hosts may be bare names (https is assumed) or URLs.
+     */
+    public void prewarm_connections(String[] hosts) {
+        stats.call("prewarm_connections");
+        prewarmHosts = hosts.clone();
+        prewarm(hosts);
+    }
+
+    private void prewarm(String[] hosts) {
+        HttpOptions httpOptions = new HttpOptions();
+        httpOptions.priority = "prefetch";
+        httpOptions.coalesce = false;
+        httpOptions.maxRetries = 0;
+        for (String host : hosts) {
+            Request request;
+            try {
+                // A HEAD request runs DNS, TCP and TLS and leaves the connection in the pool.
+                request = new Request.Builder()
+                        .url(host.contains("://") ? host : "https://" + host + "/")
+                        .head()
+                        .build();
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Unable to prewarm " + host + ": " + e.getMessage());
+                continue;
+            }
+            requests.submit(requestIds.incrementAndGet(), request, httpOptions, prewarmListener);
+        }
+    }
+
+    public void http_set_max_concurrency(int max_requests) {
+        stats.call("http_set_max_concurrency");
+        http.scheduler.setMaxConcurrency(max_requests);
+    }
+
+    public void http_set_host_concurrency(String host, int max_requests) {
+        stats.call("http_set_host_concurrency");
+        http.scheduler.setHostConcurrency(host, max_requests);
+    }
+
+    public void http_set_retry_policy(int max_retries, int base_delay_ms, int max_delay_ms) {
+        stats.call("http_set_retry_policy");
+        http.retryPolicy.configure(max_retries, base_delay_ms, max_delay_ms);
+    }
+
+    public void http_set_circuit_breaker(int failure_threshold, int open_seconds) {
+        stats.call("http_set_circuit_breaker");
+        http.breakers.configure(failure_threshold, TimeUnit.SECONDS.toMillis(open_seconds));
+    }
+
+    public Dictionary http_retry_stats() {
+        stats.call("http_retry_stats");
+        Dictionary stats = new Dictionary();
+        stats.putAll(http.retryPolicy.stats());
+        return stats;
+    }
+
+    public Dictionary http_breaker_states() {
+        stats.call("http_breaker_states");
+        Dictionary states = new Dictionary();
+        for (Map.Entry<String, Object> entry : http.breakers.states().entrySet()) {
+            Dictionary state = new Dictionary();
+            @SuppressWarnings("unchecked")
+            Map<String, Object> value = (Map<String, Object>) entry.getValue();
+            state.putAll(value);
+            states.put(entry.getKey(), state);
+        }
+        return states;
+    }
+
+    public void http_set_coalesce_headers(String[] header_names) {
+        stats.call("http_set_coalesce_headers");
+        http.coalescer.setKeyHeaders(Arrays.asList(header_names));
+    }
+
+    public void http_cache_enable(int max_size_bytes) {
+        stats.call("http_cache_enable");
+        // One directory per size, so a resized cache never shares its journal with the old one.
+        File directory = new File(new File(Objects.requireNonNull(getActivity()).getCacheDir(), "http"), Integer.toString(max_size_bytes));
+        HttpResponseCache previous = responseCache;
+        if (previous != null && previous.matches(directory, max_size_bytes)) return;
+
+        HttpResponseCache cache = new HttpResponseCache(directory, max_size_bytes);
+        OkHttpClient.Builder builder = http.client.newBuilder().cache(cache.cache());
+        if (previous != null) builder.interceptors().remove(previous.interceptor());
+        builder.addInterceptor(cache.interceptor());
+        responseCache = cache;
+        http.client = builder.build();
+
+        // Calls made before the swap may still read or write the old cache; it is deleted after
+        // the last of them closes its response.
+        if (previous != null) previous.retire();
+    }
+
+    public void http_cache_clear() {
+        stats.call("http_cache_clear");
+        HttpResponseCache cache = responseCache;
+        if (cache != null) {
+            try {
+                cache.clear();
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to clear http cache", e);
+            }
+        }
+    }
+
+    public Dictionary http_cache_stats() {
+        stats.call("http_cache_stats");
+        Dictionary stats = new Dictionary();
+        HttpResponseCache cache = responseCache;
+        if (cache != null) stats.putAll(cache.stats());
+        return stats;
+    }
+
+    public int http_download(String url, String[] headers, String dest_path) {
+        stats.call("http_download");
+        final int id = requestIds.incrementAndGet();
+        Request request = requests.build(url, headers, "GET", null, HttpOptions.DEFAULT);
+
+        requests.download(id, request, dest_path, new HttpDownload.Listener() {
+            @Override
+            public void onProgress(int id, long bytes, long total) {
+                signals.post(downloadProgressSignal.getName(), id, (int) Math.min(bytes, Integer.MAX_VALUE), (int) Math.min(total, Integer.MAX_VALUE));
+            }
+
+            @Override
+            public void onCompleted(int id, int code, String result) {
+                requests.remove(id);
+                if (code == 0) Log.d(TAG, "download error: " + result);
+                signals.post(downloadCompletedSignal.getName(), id, code, result);
             }
         });
+
+        return id;
     }
 
-    public static String decompress(byte[] compressed) throws IOException {
-        final int BUFFER_SIZE = 32;
-        ByteArrayInputStream is = new ByteArrayInputStream(compressed);
-        GZIPInputStream gis = new GZIPInputStream(is, BUFFER_SIZE);
-        StringBuilder string = new StringBuilder();
-        byte[] data = new byte[BUFFER_SIZE];
-        int bytesRead;
-        while ((bytesRead = gis.read(data)) != -1) {
-            string.append(new String(data, 0, bytesRead));
+    /**
+     * Validates the headers once and keeps them as OkHttp Headers. Requests then name the profile
+     * in their header_profile option and only pass the headers that differ.
+     */
+    public boolean register_header_profile(String name, String[] headers) {
+        stats.call("register_header_profile");
+        try {
+            requests.profiles.put(name, HeaderProfile.build(headers));
+            return true;
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Unable to register header profile " + name + ": " + e.getMessage());
+            return false;
         }
-        gis.close();
-        is.close();
-        return string.toString();
+    }
+
+    public void remove_header_profile(String name) {
+        stats.call("remove_header_profile");
+        requests.profiles.remove(name);
     }
 
     public void login_with_play_games(String webClientid) {
+        stats.call("login_with_play_games");
         Log.d(TAG, "Request to login with play games");
         GoogleSignInOptions gso = new GoogleSignInOptions.Builder(GoogleSignInOptions.DEFAULT_GAMES_SIGN_IN)
                 .requestServerAuthCode(webClientid, true)
@@ -267,6 +1255,7 @@ public class FirebasePlugin extends GodotPlugin {
     }
 
     public void login_with_google(String webClientid) {
+        stats.call("login_with_google");
         Log.d(TAG, "Request to login with google");
         GoogleSignInOptions gso = new GoogleSignInOptions.Builder(GoogleSignInOptions.DEFAULT_SIGN_IN)
                 .requestIdToken(webClientid)
@@ -278,88 +1267,101 @@ public class FirebasePlugin extends GodotPlugin {
     }
 
     public boolean is_logged_in() {
-        return mAuth.getCurrentUser() != null;
+        stats.call("is_logged_in");
+        return getCurrentUser() != null;
     }
 
     public String get_user_name() {
-        return getCurrentUser().getDisplayName();
+        stats.call("get_user_name");
+        FirebaseUser user = getCurrentUser();
+        return user != null ? user.getDisplayName() : "";
     }
 
     public String get_photo_url() {
-        Uri url = getCurrentUser().getPhotoUrl();
-        assert url != null;
-        return url.toString();
+        stats.call("get_photo_url");
+        FirebaseUser user = getCurrentUser();
+        Uri url = user != null ? user.getPhotoUrl() : null;
+        return url != null ? url.toString() : "";
     }
 
     public String get_email() {
-        return getCurrentUser().getEmail();
+        stats.call("get_email");
+        FirebaseUser user = getCurrentUser();
+        return user != null ? user.getEmail() : "";
     }
 
     public String get_uid() {
-        return getCurrentUser().getUid();
+        stats.call("get_uid");
+        FirebaseUser user = getCurrentUser();
+        return user != null ? user.getUid() : "";
     }
 
     public void get_id_token(boolean forceRefresh) {
-        try {
-            Log.d(TAG, "Request to get id token");
-            FirebaseUser user = getCurrentUser();
-            if (user == null) {
-                Log.d(TAG, "There is no logged user");
-                emitSignal(idTokenFailedSignal.getName(), "User not loaded");
-                return;
+        stats.call("get_id_token");
+        Log.d(TAG, "Request to get id token");
+        idTokens.get(forceRefresh, new IdTokenCache.Listener() {
+            @Override
+            public void onToken(String token) {
+                signals.post(idTokenLoadedSignal.getName(), token);
             }
 
-            Log.d(TAG, "Identified user: " + user.getDisplayName());
+            @Override
+            public void onError(String message) {
+                signals.post(idTokenFailedSignal.getName(), message);
+            }
+        });
+    }
 
-            user
-                    .getIdToken(forceRefresh)
-                    .addOnCompleteListener(new OnCompleteListener<GetTokenResult>() {
-                        public void onComplete(@NonNull Task<GetTokenResult> task) {
-                            if (task.isSuccessful()) {
-                                String idToken = Objects.requireNonNull(task.getResult()).getToken();
-                                if (idToken != null) {
-                                    emitSignal(idTokenLoadedSignal.getName(), idToken);
-                                } else {
-                                    emitSignal(idTokenFailedSignal.getName(), "Token Unavailable");
-                                }
-                            } else {
-                                String msg = "Get Id Token in failed " + Objects.requireNonNull(task.getException()).getMessage();
-                                Log.w(TAG, msg);
-                                emitSignal(idTokenFailedSignal.getName(), msg);
-                            }
-                        }
-                    });
-        } catch (Exception e) {
-            Log.e(TAG, "Error in get_id_token: " + e.getMessage());
-        }
+    public String get_cached_id_token() {
+        stats.call("get_cached_id_token");
+        String token = idTokens.cached();
+        return token != null ? token : "";
     }
 
     public void sign_out() {
-        mAuth.signOut();
+        stats.call("sign_out");
+        FirebaseAuth auth = mAuth.get();
+        if (auth != null) {
+            auth.signOut();
+        } else {
+            Log.e(TAG, "Firebase Auth is unavailable");
+        }
+        idTokens.invalidate();
     }
 
-    public void set_analytics_user_id(String id) {
-        mAnalytics.setUserId(id);
+    public void set_analytics_user_id(final String id) {
+        stats.call("set_analytics_user_id");
+        setAnalyticsUserId(id);
     }
 
-    public void set_analytics_user_property(String name, String value) {
-        mAnalytics.setUserProperty(name, value);
+    private void setAnalyticsUserId(final String id) {
+        mAnalytics.whenReady(new LazyComponent.Action<FirebaseAnalytics>() {
+            @Override
+            public void run(FirebaseAnalytics analytics) {
+                analytics.setUserId(id);
+            }
+        });
+    }
+
+    public void set_analytics_user_property(final String name, final String value) {
+        stats.call("set_analytics_user_property");
+        mAnalytics.whenReady(new LazyComponent.Action<FirebaseAnalytics>() {
+            @Override
+            public void run(FirebaseAnalytics analytics) {
+                analytics.setUserProperty(name, value);
+            }
+        });
     }
 
     public int new_bundle() {
+        stats.call("new_bundle");
         Bundle bundle = new Bundle();
 
-        for (int i = 0; i <= bundles.keySet().size(); i++) {
-            if (!bundles.containsKey(i)) {
-                bundles.put(i, bundle);
-                return i;
-            }
-        }
-
-        return -1;
+        return bundles.add(bundle);
     }
 
     public void put_bundle_string(int bundle_id, String param, String value) {
+        stats.call("put_bundle_string");
         Bundle bundle = bundles.get(bundle_id);
         if (bundle != null) {
             bundle.putString(param, value);
@@ -367,14 +1369,14 @@ public class FirebasePlugin extends GodotPlugin {
     }
 
     public void put_bundle_parcelable_array(int bundle_id, String param, int[] parcelable_bundles) {
+        stats.call("put_bundle_parcelable_array");
         Bundle bundle = bundles.get(bundle_id);
         if (bundle != null) {
             Parcelable[] parcelables = new Parcelable[parcelable_bundles.length];
 
             for (int i = 0; i < parcelable_bundles.length; i++) {
                 int index = parcelable_bundles[i];
-                parcelables[i] = bundles.get(index);
-                bundles.remove(index);
+                parcelables[i] = bundles.remove(index);
             }
 
             bundle.putParcelableArray(param, parcelables);
@@ -382,6 +1384,7 @@ public class FirebasePlugin extends GodotPlugin {
     }
 
     public void put_bundle_float(int bundle_id, String param, float value) {
+        stats.call("put_bundle_float");
         Bundle bundle = bundles.get(bundle_id);
         if (bundle != null) {
             bundle.putFloat(param, value);
@@ -389,6 +1392,7 @@ public class FirebasePlugin extends GodotPlugin {
     }
 
     public void put_bundle_int(int bundle_id, String param, int value) {
+        stats.call("put_bundle_int");
         Bundle bundle = bundles.get(bundle_id);
         if (bundle != null) {
             bundle.putInt(param, value);
@@ -396,50 +1400,159 @@ public class FirebasePlugin extends GodotPlugin {
     }
 
     public void log_event_bundle(String event, int bundle_id) {
-        Bundle bundle = bundles.get(bundle_id);
+        stats.call("log_event_bundle");
+        Bundle bundle = bundles.remove(bundle_id);
         if (bundle != null) {
-            mAnalytics.logEvent(event, bundle);
-            bundles.remove(bundle_id);
+            analytics.submit(new AnalyticsPipeline.Event(event, null, null, bundle));
         }
     }
 
     public void log_event(String event, String[] keys, String[] values) {
+        stats.call("log_event");
         if (keys.length != values.length) {
             return;
         }
-        Bundle bundle = new Bundle();
-        for (int i = 0; i < keys.length; i++) {
-            bundle.putString(keys[i], values[i]);
+        analytics.submit(new AnalyticsPipeline.Event(event, keys, values, null));
+    }
+
+    public boolean log_event_dict(String event, Dictionary params) {
+        stats.call("log_event_dict");
+        String name = analyticsNames.intern(event);
+        if (name == null) {
+            Log.w(TAG, "Invalid analytics event name: " + event);
+            return false;
         }
-        mAnalytics.logEvent(event, bundle);
+        return analytics.submit(new AnalyticsPipeline.Event(name, null, null, params));
     }
 
+    public void configure_analytics(Dictionary options) {
+        stats.call("configure_analytics");
+        analytics.configure(
+                Options.getInt(options, "capacity", 1024),
+                Options.getInt(options, "batch_size", 32),
+                Options.getInt(options, "flush_interval_ms", 2000),
+                Options.getBoolean(options, "aggregate", false));
+    }
+
+    public void set_analytics_sampling(String event, float rate) {
+        stats.call("set_analytics_sampling");
+        analytics.setSamplingRate(event, rate);
+    }
+
+    public void flush_analytics() {
+        stats.call("flush_analytics");
+        analytics.flush(0L);
+    }
+
+    public Dictionary get_analytics_stats() {
+        stats.call("get_analytics_stats");
+        Dictionary stats = new Dictionary();
+        stats.putAll(analytics.stats());
+        return stats;
+    }
+
+    private final EventParams.Target<Bundle> bundleTarget = new EventParams.Target<Bundle>() {
+        @Override
+        public Bundle create() {
+            return new Bundle();
+        }
+
+        @Override
+        public void putString(Bundle params, String key, String value) {
+            params.putString(key, value);
+        }
+
+        @Override
+        public void putLong(Bundle params, String key, long value) {
+            params.putLong(key, value);
+        }
+
+        @Override
+        public void putDouble(Bundle params, String key, double value) {
+            params.putDouble(key, value);
+        }
+
+        @Override
+        public void putArray(Bundle params, String key, List<Bundle> items) {
+            params.putParcelableArray(key, items.toArray(new Parcelable[0]));
+        }
+
+        @Override
+        public void dropped(String event, String key, String reason) {
+            Log.w(TAG, "Dropping parameter '" + key + "' of event " + event + ": " + reason);
+        }
+    };
+
     public void record_exception(String message) {
-        mCrashlytics.recordException(new RuntimeException(message));
+        stats.call("record_exception");
+        crashReporter.recordException(message, null, System.currentTimeMillis());
+    }
+
+    public void record_exception_with_stack(String message, Object[] stack) {
+        stats.call("record_exception_with_stack");
+        // Frames come from GDScript's get_stack(): dictionaries with function, line and source.
+        StackTraceElement[] frames = new StackTraceElement[stack.length];
+        for (int i = 0; i < stack.length; i++) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> frame = stack[i] instanceof Map ? (Map<String, Object>) stack[i] : null;
+            String source = frame != null ? Options.getString(frame, "source", "") : "";
+            String function = frame != null ? Options.getString(frame, "function", "") : String.valueOf(stack[i]);
+            int line = frame != null ? Options.getInt(frame, "line", -1) : -1;
+            frames[i] = new StackTraceElement(source, function, source, line);
+        }
+        crashReporter.recordException(message, frames, System.currentTimeMillis());
     }
 
     public void log(String message) {
-        mCrashlytics.log(message);
+        stats.call("log");
+        crashReporter.log(message);
     }
 
     public void log_set_custom_key(String key, String value) {
-        mCrashlytics.setCustomKey(key, value);
+        stats.call("log_set_custom_key");
+        crashReporter.setCustomKey(key, value);
     }
 
-    public int new_http_metric(String url, String method) {
-        HttpMetric metric = new HttpMetric(url, method, TransportManager.getInstance(), new Timer());
+    public void configure_crashlytics(Dictionary options) {
+        stats.call("configure_crashlytics");
+        crashReporter.configure(
+                Options.getBoolean(options, "breadcrumbs", false),
+                Options.getInt(options, "breadcrumb_capacity", 64),
+                Options.getBoolean(options, "deduplicate_exceptions", false),
+                TimeUnit.SECONDS.toMillis(Options.getInt(options, "exception_interval_seconds", 60)),
+                Options.getInt(options, "max_exceptions_per_minute", 10));
+    }
 
-        for (int i = 0; i <= metrics.keySet().size(); i++) {
-            if (!metrics.containsKey(i)) {
-                metrics.put(i, metric);
-                return i;
-            }
+    public Dictionary get_crashlytics_stats() {
+        stats.call("get_crashlytics_stats");
+        Dictionary stats = new Dictionary();
+        stats.putAll(crashReporter.stats());
+        return stats;
+    }
+
+    public int new_http_metric(String url, String method) {
+        stats.call("new_http_metric");
+        String name = httpMetricName(url);
+        TraceAggregator.Rule rule = httpMetricAggregation.rule(name);
+        if (rule.aggregate) {
+            TraceAggregator.Span span = new TraceAggregator.Span(name);
+            span.putAttribute("method", method);
+            return spanHandle(span);
         }
+        if (!sampled(rule)) return SAMPLED_OUT;
 
-        return -1;
+        HttpMetric metric = new HttpMetric(url, method, TransportManager.getInstance(), new Timer());
+        if (rule.sampleRate < 1.0) metric.putAttribute("sample_rate", String.valueOf(rule.sampleRate));
+        return metrics.add(metric);
     }
 
     public void http_metric_start(int metric_id) {
+        stats.call("http_metric_start");
+        if (metric_id < 0) {
+            TraceAggregator.Span span = span(metric_id);
+            if (span != null) span.start(System.nanoTime());
+            return;
+        }
         HttpMetric metric = metrics.get(metric_id);
         if (metric != null) {
             metric.start();
@@ -447,6 +1560,11 @@ public class FirebasePlugin extends GodotPlugin {
     }
 
     public void http_metric_stop(int metric_id) {
+        stats.call("http_metric_stop");
+        if (metric_id < 0) {
+            stopSpan(httpMetricAggregation, metric_id);
+            return;
+        }
         HttpMetric metric = metrics.get(metric_id);
         if (metric != null) {
             metric.stop();
@@ -456,6 +1574,12 @@ public class FirebasePlugin extends GodotPlugin {
     }
 
     public void http_metric_set_http_response_code(int metric_id, int response_code) {
+        stats.call("http_metric_set_http_response_code");
+        if (metric_id < 0) {
+            TraceAggregator.Span span = span(metric_id);
+            if (span != null) span.setResponseCode(response_code);
+            return;
+        }
         HttpMetric metric = metrics.get(metric_id);
         if (metric != null) {
             metric.setHttpResponseCode(response_code);
@@ -463,6 +1587,12 @@ public class FirebasePlugin extends GodotPlugin {
     }
 
     public void http_metric_set_set_request_payload_size(int metric_id, int bytes) {
+        stats.call("http_metric_set_set_request_payload_size");
+        if (metric_id < 0) {
+            TraceAggregator.Span span = span(metric_id);
+            if (span != null) span.putMetric("request_bytes", bytes);
+            return;
+        }
         HttpMetric metric = metrics.get(metric_id);
         if (metric != null) {
             metric.setRequestPayloadSize((long) bytes);
@@ -470,6 +1600,12 @@ public class FirebasePlugin extends GodotPlugin {
     }
 
     public void http_metric_set_response_payload_size(int metric_id, int bytes) {
+        stats.call("http_metric_set_response_payload_size");
+        if (metric_id < 0) {
+            TraceAggregator.Span span = span(metric_id);
+            if (span != null) span.putMetric("response_bytes", bytes);
+            return;
+        }
         HttpMetric metric = metrics.get(metric_id);
         if (metric != null) {
             metric.setResponsePayloadSize((long) bytes);
@@ -477,6 +1613,12 @@ public class FirebasePlugin extends GodotPlugin {
     }
 
     public void http_metric_set_response_content_type(int metric_id, String contet_type) {
+        stats.call("http_metric_set_response_content_type");
+        if (metric_id < 0) {
+            TraceAggregator.Span span = span(metric_id);
+            if (span != null) span.putAttribute("content_type", contet_type);
+            return;
+        }
         HttpMetric metric = metrics.get(metric_id);
         if (metric != null) {
             metric.setResponseContentType(contet_type);
@@ -484,6 +1626,9 @@ public class FirebasePlugin extends GodotPlugin {
     }
 
     public void http_metric_mark_request_complete(int metric_id) {
+        stats.call("http_metric_mark_request_complete");
+        // Aggregated spans only keep the total duration.
+        if (metric_id < 0) return;
         HttpMetric metric = metrics.get(metric_id);
         if (metric != null) {
             metric.markRequestComplete();
@@ -491,6 +1636,8 @@ public class FirebasePlugin extends GodotPlugin {
     }
 
     public void http_metric_mark_response_start(int metric_id) {
+        stats.call("http_metric_mark_response_start");
+        if (metric_id < 0) return;
         HttpMetric metric = metrics.get(metric_id);
         if (metric != null) {
             metric.markResponseStart();
@@ -498,11 +1645,22 @@ public class FirebasePlugin extends GodotPlugin {
     }
 
     public String http_metric_get_attribute(int metric_id, String attribute) {
+        stats.call("http_metric_get_attribute");
+        if (metric_id < 0) {
+            TraceAggregator.Span span = span(metric_id);
+            return span != null ? span.getAttribute(attribute) : null;
+        }
         HttpMetric metric = metrics.get(metric_id);
         return metric != null ? metric.getAttribute(attribute) : null;
     }
 
     public void http_metric_put_attribute(int metric_id, String attribute, String value) {
+        stats.call("http_metric_put_attribute");
+        if (metric_id < 0) {
+            TraceAggregator.Span span = span(metric_id);
+            if (span != null) span.putAttribute(attribute, value);
+            return;
+        }
         HttpMetric metric = metrics.get(metric_id);
         if (metric != null) {
             metric.putAttribute(attribute, value);
@@ -510,6 +1668,12 @@ public class FirebasePlugin extends GodotPlugin {
     }
 
     public void http_metric_remove_attribute(int metric_id, String attribute) {
+        stats.call("http_metric_remove_attribute");
+        if (metric_id < 0) {
+            TraceAggregator.Span span = span(metric_id);
+            if (span != null) span.removeAttribute(attribute);
+            return;
+        }
         HttpMetric metric = metrics.get(metric_id);
         if (metric != null) {
             metric.removeAttribute(attribute);
@@ -518,19 +1682,29 @@ public class FirebasePlugin extends GodotPlugin {
 
 
     public int new_trace(String trace_name) {
-        Trace trace = mPerformance.newTrace(trace_name);
-
-        for (int i = 0; i <= traces.keySet().size(); i++) {
-            if (!traces.containsKey(i)) {
-                traces.put(i, trace);
-                return i;
-            }
+        stats.call("new_trace");
+        TraceAggregator.Rule rule = traceAggregation.rule(trace_name);
+        if (rule.aggregate) return spanHandle(new TraceAggregator.Span(trace_name));
+        if (!sampled(rule)) return SAMPLED_OUT;
+
+        FirebasePerformance performance = mPerformance.get();
+        if (performance == null) {
+            Log.e(TAG, "Firebase Performance is unavailable, trace " + trace_name + " is not recorded");
+            return SAMPLED_OUT;
         }
+        Trace trace = performance.newTrace(trace_name);
+        if (rule.sampleRate < 1.0) trace.putAttribute("sample_rate", String.valueOf(rule.sampleRate));
 
-        return -1;
+        return traces.add(trace);
     }
 
     public void trace_start(int trace_id) {
+        stats.call("trace_start");
+        if (trace_id < 0) {
+            TraceAggregator.Span span = span(trace_id);
+            if (span != null) span.start(System.nanoTime());
+            return;
+        }
         Trace trace = traces.get(trace_id);
         if (trace != null) {
             trace.start();
@@ -538,6 +1712,11 @@ public class FirebasePlugin extends GodotPlugin {
     }
 
     public void trace_stop(int trace_id) {
+        stats.call("trace_stop");
+        if (trace_id < 0) {
+            stopSpan(traceAggregation, trace_id);
+            return;
+        }
         Trace trace = traces.get(trace_id);
         if (trace != null) {
             trace.stop();
@@ -546,11 +1725,22 @@ public class FirebasePlugin extends GodotPlugin {
     }
 
     public String trace_get_attribute(int trace_id, String attribute) {
+        stats.call("trace_get_attribute");
+        if (trace_id < 0) {
+            TraceAggregator.Span span = span(trace_id);
+            return span != null ? span.getAttribute(attribute) : null;
+        }
         Trace trace = traces.get(trace_id);
         return trace != null ? trace.getAttribute(attribute) : null;
     }
 
     public void trace_put_attribute(int trace_id, String attribute, String value) {
+        stats.call("trace_put_attribute");
+        if (trace_id < 0) {
+            TraceAggregator.Span span = span(trace_id);
+            if (span != null) span.putAttribute(attribute, value);
+            return;
+        }
         Trace trace = traces.get(trace_id);
         if (trace != null) {
             trace.putAttribute(attribute, value);
@@ -558,6 +1748,12 @@ public class FirebasePlugin extends GodotPlugin {
     }
 
     public void trace_remove_attribute(int trace_id, String attribute) {
+        stats.call("trace_remove_attribute");
+        if (trace_id < 0) {
+            TraceAggregator.Span span = span(trace_id);
+            if (span != null) span.removeAttribute(attribute);
+            return;
+        }
         Trace trace = traces.get(trace_id);
         if (trace != null) {
             trace.removeAttribute(attribute);
@@ -565,6 +1761,12 @@ public class FirebasePlugin extends GodotPlugin {
     }
 
     public void trace_increment_metric(int trace_id, String metric, int increment_value) {
+        stats.call("trace_increment_metric");
+        if (trace_id < 0) {
+            TraceAggregator.Span span = span(trace_id);
+            if (span != null) span.incrementMetric(metric, increment_value);
+            return;
+        }
         Trace trace = traces.get(trace_id);
         if (trace != null) {
             trace.incrementMetric(metric, (long) increment_value);
@@ -572,19 +1774,249 @@ public class FirebasePlugin extends GodotPlugin {
     }
 
     public int trace_get_long_metric(int trace_id, String metric) {
+        stats.call("trace_get_long_metric");
+        if (trace_id < 0) {
+            TraceAggregator.Span span = span(trace_id);
+            return (int) (span != null ? span.getLongMetric(metric) : 0);
+        }
         Trace trace = traces.get(trace_id);
         return (int) (trace != null ? trace.getLongMetric(metric) : 0);
     }
 
     public void trace_put_metric(int trace_id, String metric, int value) {
+        stats.call("trace_put_metric");
+        if (trace_id < 0) {
+            TraceAggregator.Span span = span(trace_id);
+            if (span != null) span.putMetric(metric, value);
+            return;
+        }
         Trace trace = traces.get(trace_id);
         if (trace != null) {
             trace.putMetric(metric, (long) value);
         }
     }
 
+    /**
+     * Sets how traces with this name are reported: sample_rate (0 to 1) keeps that share of them,
+     * and aggregate folds them into one summary trace per attribute set, sent every aggregation
+     * interval. The name "*" sets the default.
+     */
+    public void set_trace_rule(String trace_name, Dictionary options) {
+        stats.call("set_trace_rule");
+        traceAggregation.setRule(trace_name, TraceAggregator.Rule.parse(options));
+    }
+
+    /**
+     * Like set_trace_rule, for new_http_metric. Rules match the URL pattern used for automatic
+     * metrics (host and path, with ids replaced by ":id"), or "*".
+     */
+    public void set_http_metric_rule(String url_pattern, Dictionary options) {
+        stats.call("set_http_metric_rule");
+        httpMetricAggregation.setRule(url_pattern, TraceAggregator.Rule.parse(options));
+    }
+
+    public void clear_performance_rules() {
+        stats.call("clear_performance_rules");
+        traceAggregation.clearRules();
+        httpMetricAggregation.clearRules();
+    }
+
+    public void set_aggregation_interval(int interval_seconds) {
+        stats.call("set_aggregation_interval");
+        scheduleAggregationFlush(Math.max(1, interval_seconds));
+    }
+
+    public void flush_aggregated_traces() {
+        stats.call("flush_aggregated_traces");
+        timer.execute(flushAggregation);
+    }
+
+    private void scheduleAggregationFlush(int interval_seconds) {
+        ScheduledFuture<?> previous = aggregationFlushTask;
+        if (previous != null) previous.cancel(false);
+        aggregationFlushTask = timer.scheduleAtFixedRate(flushAggregation, interval_seconds, interval_seconds, TimeUnit.SECONDS);
+    }
+
+    private boolean sampled(TraceAggregator.Rule rule) {
+        if (rule.sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < rule.sampleRate) return true;
+        stats.counter("perf.sampled_out").increment();
+        return false;
+    }
+
+    /**
+     * Handles of aggregated spans are the complement of their registry handle, so they are always
+     * below SAMPLED_OUT and never collide with Trace or HttpMetric handles.
+     */
+    private int spanHandle(TraceAggregator.Span span) {
+        int handle = spans.add(span);
+        return handle != HandleRegistry.INVALID ? ~handle : HandleRegistry.INVALID;
+    }
+
+    private TraceAggregator.Span span(int handle) {
+        return handle < SAMPLED_OUT ? spans.get(~handle) : null;
+    }
+
+    private void stopSpan(TraceAggregator aggregator, int handle) {
+        if (handle >= SAMPLED_OUT) return;
+        TraceAggregator.Span span = spans.remove(~handle);
+        if (span != null) {
+            aggregator.record(span, System.nanoTime());
+            stats.counter("perf.aggregated").increment();
+        }
+    }
+
+    private String httpMetricName(String url) {
+        HttpUrl parsed = HttpUrl.parse(url);
+        if (parsed == null) return url;
+        String pattern = urlPatterns.normalize(parsed.scheme(), parsed.host(), parsed.encodedPath());
+        // The scheme adds nothing to the summary's name.
+        int scheme = pattern.indexOf("://");
+        return scheme >= 0 ? pattern.substring(scheme + 3) : pattern;
+    }
+
+    public void set_signal_budget(int max_signals_per_frame, int budget_usec) {
+        stats.call("set_signal_budget");
+        maxSignalsPerFrame = Math.max(1, max_signals_per_frame);
+        signalBudgetNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, budget_usec));
+    }
+
+    /**
+     * Samples frame times and memory and reports one Performance trace per scene, or per window
+     * when window_seconds is set. Frames come from Choreographer (display vsync) or, with
+     * source "render", from Godot's render thread.
+     */
+    public void start_frame_sampler(Dictionary options) {
+        stats.call("start_frame_sampler");
+        boolean render = "render".equals(Options.getString(options, "source", "choreographer"));
+        frameSampler.start(
+                TimeUnit.SECONDS.toMillis(Options.getInt(options, "window_seconds", 0)),
+                Options.getInt(options, "jank_ms", 33),
+                Options.getInt(options, "heap_sample_frames", 30));
+        renderFrames = render;
+        setChoreographerFrames(!render);
+    }
+
+    public void stop_frame_sampler() {
+        stats.call("stop_frame_sampler");
+        renderFrames = false;
+        setChoreographerFrames(false);
+        frameSampler.stop();
+    }
+
+    /**
+     * Closes the current scene's window, reporting its trace, and starts measuring the next one.
+     */
+    public void mark_scene(String name) {
+        stats.call("mark_scene");
+        frameSampler.markScene(name);
+    }
+
+    public Dictionary get_frame_stats() {
+        stats.call("get_frame_stats");
+        Dictionary stats = new Dictionary();
+        for (Map.Entry<String, Long> entry : frameSampler.snapshot().entrySet()) {
+            stats.put(entry.getKey(), (int) Math.min(entry.getValue(), Integer.MAX_VALUE));
+        }
+        stats.put("scene", frameSampler.scene());
+        return stats;
+    }
+
+    private void setChoreographerFrames(final boolean enabled) {
+        choreographerFrames = enabled;
+        Activity activity = getActivity();
+        if (activity == null) return;
+        activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                // Remove first so starting twice never leaves two callbacks posted.
+                Choreographer.getInstance().removeFrameCallback(frameCallback);
+                if (choreographerFrames) Choreographer.getInstance().postFrameCallback(frameCallback);
+            }
+        });
+    }
+
+    private static String frameTraceName(String scene) {
+        // Trace names may not start with '_' or whitespace and are limited to 100 characters.
+        return limit("frames_" + scene.trim(), 100);
+    }
+
+    private static String limit(String value, int length) {
+        return value.length() > length ? value.substring(0, length) : value;
+    }
+
+    @Override
+    public void onMainPause() {
+        // Only wakes the worker; onMainPause runs on the UI thread and must not wait for it.
+        analytics.flush(0L);
+        timer.execute(flushAggregation);
+        frameSampler.pause();
+        if (choreographerFrames) setChoreographerFrames(false);
+    }
+
+    @Override
+    public void onMainResume() {
+        // Pooled connections are usually gone after time in the background.
+        prewarm(prewarmHosts);
+        if (frameSampler.isRunning() && !renderFrames) setChoreographerFrames(true);
+    }
+
+    @Override
+    public void onMainDestroy() {
+        timer.execute(new Runnable() {
+            @Override
+            public void run() {
+                ConnectivityManager.NetworkCallback callback = offlineReplayCallback;
+                if (callback == null) return;
+                offlineReplayCallback = null;
+                try {
+                    ConnectivityManager connectivity = (ConnectivityManager) Objects.requireNonNull(getActivity()).getSystemService(Context.CONNECTIVITY_SERVICE);
+                    connectivity.unregisterNetworkCallback(callback);
+                } catch (Exception e) {
+                    Log.w(TAG, "Unable to stop watching connectivity: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onGLDrawFrame(GL10 gl) {
+        stats.frame();
+        if (renderFrames) frameSampler.onFrame(System.nanoTime());
+        signals.drain(signalEmitter, maxSignalsPerFrame, signalBudgetNanos);
+    }
+
+    public void set_handle_leak_age(int seconds) {
+        stats.call("set_handle_leak_age");
+        handleLeakAgeMillis = TimeUnit.SECONDS.toMillis(Math.max(0, seconds));
+    }
+
+    public Dictionary get_handle_stats() {
+        stats.call("get_handle_stats");
+        Dictionary stats = new Dictionary();
+        stats.put("bundles", handleStats("bundles", bundles));
+        stats.put("traces", handleStats("traces", traces));
+        stats.put("http_metrics", handleStats("http_metrics", metrics));
+        stats.put("spans", handleStats("spans", spans));
+        return stats;
+    }
+
+    private Dictionary handleStats(String kind, HandleRegistry<?> registry) {
+        Dictionary stats = new Dictionary();
+        stats.putAll(registry.stats(handleLeakAgeMillis));
+        int[] leaked = (int[]) stats.get("leaked");
+        if (registry == spans) {
+            // Report the handles GDScript holds, see spanHandle.
+            for (int i = 0; i < leaked.length; i++) leaked[i] = ~leaked[i];
+        }
+        if (leaked.length > 0) {
+            Log.w(TAG, leaked.length + " " + kind + " handles alive for more than " + handleLeakAgeMillis + "ms: " + Arrays.toString(leaked));
+        }
+        return stats;
+    }
+
     private FirebaseUser getCurrentUser() {
-        return mAuth.getCurrentUser();
+        FirebaseAuth auth = mAuth.get();
+        return auth != null ? auth.getCurrentUser() : null;
     }
 
     @Override
@@ -601,7 +2033,7 @@ public class FirebasePlugin extends GodotPlugin {
             } else {
                 String message = result.getStatus().getStatusCode() + ": " + result.getStatus().getStatusMessage();
                 Log.w(TAG, "Play Games sign in failed " + message);
-                emitSignal(loginFailedSignal.getName(), message);
+                signals.post(loginFailedSignal.getName(), message);
             }
         } else if (requestCode == RC_GOOGLE_SIGN_IN) {
             Task<GoogleSignInAccount> task = GoogleSignIn.getSignedInAccountFromIntent(data);
@@ -613,27 +2045,40 @@ public class FirebasePlugin extends GodotPlugin {
                 firebaseAuth(credential);
             } catch (ApiException e) {
                 Log.w(TAG, "Google sign in failed", e);
-                emitSignal(loginFailedSignal.getName(), e.getMessage());
+                signals.post(loginFailedSignal.getName(), e.getMessage());
             }
         }
     }
 
     private void firebaseAuth(AuthCredential credential) {
-        mAuth.signInWithCredential(credential)
+        final long started = System.nanoTime();
+        FirebaseAuth auth = mAuth.get();
+        if (auth == null) {
+            Log.e(TAG, "Firebase Auth is unavailable");
+            signals.post(loginFailedSignal.getName(), "Firebase Auth is unavailable");
+            return;
+        }
+        auth.signInWithCredential(credential)
                 .addOnCompleteListener(Objects.requireNonNull(getActivity()), new OnCompleteListener<AuthResult>() {
                     @Override
                     public void onComplete(@NonNull Task<AuthResult> task) {
+                        stats.histogram("auth.sign_in").recordNanos(System.nanoTime() - started);
                         if (task.isSuccessful()) {
                             Log.d(TAG, "signInWithCredential:success");
-                            FirebaseUser user = mAuth.getCurrentUser();
+                            final FirebaseUser user = getCurrentUser();
                             assert user != null;
-                            mCrashlytics.setUserId(user.getUid());
-                            mAnalytics.setUserId(user.getUid());
-                            mCrashlytics.sendUnsentReports();
-                            emitSignal(loginSuccessfullySignal.getName());
+                            mCrashlytics.whenReady(new LazyComponent.Action<FirebaseCrashlytics>() {
+                                @Override
+                                public void run(FirebaseCrashlytics crashlytics) {
+                                    crashlytics.setUserId(user.getUid());
+                                    crashlytics.sendUnsentReports();
+                                }
+                            });
+                            setAnalyticsUserId(user.getUid());
+                            signals.post(loginSuccessfullySignal.getName());
                         } else {
                             Log.w(TAG, "signInWithCredential:failure", task.getException());
-                            emitSignal(loginFailedSignal.getName(), Objects.requireNonNull(task.getException()).getMessage());
+                            signals.post(loginFailedSignal.getName(), Objects.requireNonNull(task.getException()).getMessage());
                         }
                     }
                 });
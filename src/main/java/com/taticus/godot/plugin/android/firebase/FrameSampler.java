@@ -0,0 +1,201 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregates frame times and heap samples per scene or time window, and hands one set of
+ * summary metrics to the {@link Sink} when the window closes. Frames are recorded into
+ * preallocated fixed-bucket histograms, so {@link #onFrame} never allocates.
+ *
+ * <p>Frame timestamps come from the caller (Choreographer or the render thread); the clock only
+ * decides when a time window is over.
+ */
+final class FrameSampler {
+
+    interface Clock {
+        long nanoTime();
+    }
+
+    interface HeapProbe {
+        long usedBytes();
+    }
+
+    interface Sink {
+        void emit(String scene, Map<String, Long> metrics);
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    private static final long FRAME_BUCKET_NANOS = TimeUnit.MICROSECONDS.toNanos(250);
+    // 250 us buckets up to one second; longer frames land in the last bucket.
+    private static final int FRAME_BUCKETS = 4000;
+    private static final long HEAP_BUCKET_BYTES = 1024L * 1024L;
+    private static final int HEAP_BUCKETS = 4096;
+    // Firebase Performance counts frames over 700 ms as frozen.
+    private static final long FROZEN_FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(700);
+
+    private final Clock clock;
+    private final HeapProbe heap;
+    private final Sink sink;
+    private final int[] frameCounts = new int[FRAME_BUCKETS];
+    private final int[] heapCounts = new int[HEAP_BUCKETS];
+
+    private boolean running;
+    private long windowNanos;
+    private long jankNanos;
+    private int heapSampleFrames;
+
+    private String scene = "app";
+    private long windowStart;
+    private long lastFrame = -1L;
+    private int frames;
+    private int jankFrames;
+    private int frozenFrames;
+    private long maxFrameNanos;
+    private int framesSinceHeapSample;
+    private int heapSamples;
+    private long heapPeak;
+
+    FrameSampler(Clock clock, HeapProbe heap, Sink sink) {
+        this.clock = clock;
+        this.heap = heap;
+        this.sink = sink;
+    }
+
+    synchronized void start(long windowMillis, long jankMillis, int heapSampleFrames) {
+        if (running) flush();
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, windowMillis));
+        this.jankNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, jankMillis));
+        this.heapSampleFrames = Math.max(1, heapSampleFrames);
+        running = true;
+        reset();
+    }
+
+    synchronized void stop() {
+        if (!running) return;
+        flush();
+        running = false;
+    }
+
+    synchronized boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Closes the current window and starts a new one for the scene.
+     */
+    synchronized void markScene(String name) {
+        if (running) {
+            // The frame that spans the boundary, usually the scene load, counts for the new scene.
+            long last = lastFrame;
+            flush();
+            lastFrame = last;
+        }
+        scene = name;
+    }
+
+    /**
+     * Closes the current window when the app goes to the background, so the gap until the next
+     * frame is not counted as one long frame.
+     */
+    synchronized void pause() {
+        if (running) flush();
+    }
+
+    synchronized void onFrame(long frameTimeNanos) {
+        if (!running) return;
+
+        if (lastFrame >= 0L && frameTimeNanos > lastFrame) {
+            long duration = frameTimeNanos - lastFrame;
+            frameCounts[(int) Math.min(duration / FRAME_BUCKET_NANOS, FRAME_BUCKETS - 1)]++;
+            frames++;
+            if (duration > jankNanos) jankFrames++;
+            if (duration > FROZEN_FRAME_NANOS) frozenFrames++;
+            if (duration > maxFrameNanos) maxFrameNanos = duration;
+        }
+        lastFrame = frameTimeNanos;
+
+        if (++framesSinceHeapSample >= heapSampleFrames) {
+            framesSinceHeapSample = 0;
+            long used = heap.usedBytes();
+            heapCounts[(int) Math.min(used / HEAP_BUCKET_BYTES, HEAP_BUCKETS - 1)]++;
+            heapSamples++;
+            if (used > heapPeak) heapPeak = used;
+        }
+
+        if (windowNanos > 0L && clock.nanoTime() - windowStart >= windowNanos) {
+            flush();
+            lastFrame = frameTimeNanos;
+        }
+    }
+
+    synchronized Map<String, Long> snapshot() {
+        return metrics();
+    }
+
+    synchronized String scene() {
+        return scene;
+    }
+
+    private void flush() {
+        if (frames > 0) sink.emit(scene, metrics());
+        reset();
+    }
+
+    private Map<String, Long> metrics() {
+        Map<String, Long> metrics = new HashMap<>();
+        metrics.put("frames", (long) frames);
+        metrics.put("frame_p50_us", frameMicros(percentile(frameCounts, frames, 0.50)));
+        metrics.put("frame_p90_us", frameMicros(percentile(frameCounts, frames, 0.90)));
+        metrics.put("frame_p99_us", frameMicros(percentile(frameCounts, frames, 0.99)));
+        metrics.put("frame_max_us", TimeUnit.NANOSECONDS.toMicros(maxFrameNanos));
+        metrics.put("jank_frames", (long) jankFrames);
+        metrics.put("frozen_frames", (long) frozenFrames);
+        long heapPeakMb = (heapPeak + HEAP_BUCKET_BYTES - 1) / HEAP_BUCKET_BYTES;
+        metrics.put("heap_p50_mb", heapSamples > 0 ? Math.min(percentile(heapCounts, heapSamples, 0.50) + 1L, heapPeakMb) : 0L);
+        metrics.put("heap_peak_mb", heapPeakMb);
+        metrics.put("duration_ms", TimeUnit.NANOSECONDS.toMillis(clock.nanoTime() - windowStart));
+        return metrics;
+    }
+
+    /**
+     * Upper bound of the frame bucket, clamped to the longest frame seen.
+     */
+    private long frameMicros(int bucket) {
+        if (frames == 0) return 0L;
+        return TimeUnit.NANOSECONDS.toMicros(Math.min((bucket + 1) * FRAME_BUCKET_NANOS, maxFrameNanos));
+    }
+
+    private static int percentile(int[] counts, int total, double quantile) {
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return i;
+        }
+        return counts.length - 1;
+    }
+
+    private void reset() {
+        windowStart = clock.nanoTime();
+        lastFrame = -1L;
+        frames = 0;
+        jankFrames = 0;
+        frozenFrames = 0;
+        maxFrameNanos = 0L;
+        framesSinceHeapSample = 0;
+        heapSamples = 0;
+        heapPeak = 0L;
+        Arrays.fill(frameCounts, 0);
+        Arrays.fill(heapCounts, 0);
+    }
+}
@@ -0,0 +1,120 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Slot map handing out int handles for plugin objects. A handle packs a slot index with the
+ * slot's generation, so allocation and lookup are O(1) through a free list and a handle that
+ * has been released (or reused by another object) is rejected instead of aliasing a new one.
+ */
+final class HandleRegistry<T> {
+
+    static final int INVALID = -1;
+
+    private static final int INDEX_BITS = 16;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    private static final int GENERATION_MASK = (1 << (31 - INDEX_BITS)) - 1;
+    private static final int MAX_SLOTS = 1 << INDEX_BITS;
+
+    private Object[] values = new Object[16];
+    private int[] generations = new int[16];
+    private int[] nextFree = new int[16];
+    private long[] createdAt = new long[16];
+
+    private int used;
+    private int freeHead = -1;
+    private int live;
+    private long allocated;
+    private long staleLookups;
+
+    synchronized int add(T value) {
+        int index;
+        if (freeHead != -1) {
+            index = freeHead;
+            freeHead = nextFree[index];
+        } else {
+            if (used == MAX_SLOTS) return INVALID;
+            if (used == values.length) grow();
+            index = used++;
+            generations[index] = 1;
+        }
+
+        values[index] = value;
+        createdAt[index] = System.nanoTime();
+        live++;
+        allocated++;
+        return (generations[index] << INDEX_BITS) | index;
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized T get(int handle) {
+        int index = indexOf(handle);
+        return index != -1 ? (T) values[index] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized T remove(int handle) {
+        int index = indexOf(handle);
+        if (index == -1) return null;
+
+        T value = (T) values[index];
+        values[index] = null;
+        generations[index] = (generations[index] + 1) & GENERATION_MASK;
+        if (generations[index] == 0) generations[index] = 1;
+        nextFree[index] = freeHead;
+        freeHead = index;
+        live--;
+        return value;
+    }
+
+    synchronized int size() {
+        return live;
+    }
+
+    synchronized int[] leaked(long maxAgeMillis) {
+        long now = System.nanoTime();
+        long maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        int[] handles = new int[live];
+        int count = 0;
+        for (int i = 0; i < used; i++) {
+            if (values[i] != null && now - createdAt[i] > maxAgeNanos) {
+                handles[count++] = (generations[i] << INDEX_BITS) | i;
+            }
+        }
+        return Arrays.copyOf(handles, count);
+    }
+
+    synchronized Map<String, Object> stats(long leakAgeMillis) {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("live", live);
+        stats.put("slots", used);
+        stats.put("allocated", (int) allocated);
+        stats.put("stale_lookups", (int) staleLookups);
+        stats.put("leaked", leaked(leakAgeMillis));
+        return stats;
+    }
+
+    private int indexOf(int handle) {
+        if (handle < 0) {
+            staleLookups++;
+            return -1;
+        }
+        int index = handle & INDEX_MASK;
+        if (index >= used || values[index] == null || generations[index] != handle >>> INDEX_BITS) {
+            staleLookups++;
+            return -1;
+        }
+        return index;
+    }
+
+    private void grow() {
+        int capacity = Math.min(values.length * 2, MAX_SLOTS);
+        values = Arrays.copyOf(values, capacity);
+        generations = Arrays.copyOf(generations, capacity);
+        nextFree = Arrays.copyOf(nextFree, capacity);
+        createdAt = Arrays.copyOf(createdAt, capacity);
+    }
+}
@@ -0,0 +1,68 @@
+package com.taticus.godot.plugin.android.firebase;
+
+/**
+ * Parses the "Name: value" header strings passed from GDScript. Splits on the first ':' with
+ * indexOf rather than String.split, which compiles a regex for every header and cuts values that
+ * themselves contain ": ". Entries OkHttp would reject are reported instead of thrown, so one bad
+ * header cannot take down the call.
+ */
+final class HeaderParser {
+
+    interface Sink {
+        void header(String name, String value);
+
+        void malformed(String header);
+    }
+
+    static final String DEFAULT_CONTENT_TYPE = "application/json";
+
+    private HeaderParser() {
+    }
+
+    /**
+     * Passes every header to the sink and returns the Content-Type among them, or
+     * {@link #DEFAULT_CONTENT_TYPE} if there is none.
+     */
+    static String parse(String[] headers, Sink sink) {
+        return parse(headers, DEFAULT_CONTENT_TYPE, sink);
+    }
+
+    static String parse(String[] headers, String defaultContentType, Sink sink) {
+        String contentType = defaultContentType;
+        for (String header : headers) {
+            int separator = header != null ? header.indexOf(':') : -1;
+            if (separator <= 0) {
+                sink.malformed(header);
+                continue;
+            }
+
+            String name = header.substring(0, separator).trim();
+            String value = header.substring(separator + 1).trim();
+            if (!isValidName(name) || !isValidValue(value)) {
+                sink.malformed(header);
+                continue;
+            }
+            if (name.equalsIgnoreCase("content-type")) contentType = value;
+            sink.header(name, value);
+        }
+        return contentType;
+    }
+
+    // The same character rules OkHttp's Headers applies, which throws on anything else.
+    private static boolean isValidName(String name) {
+        if (name.isEmpty()) return false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c <= ' ' || c >= '\u007f') return false;
+        }
+        return true;
+    }
+
+    private static boolean isValidValue(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c <= '\u001f' && c != '\t') || c >= '\u007f') return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,42 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.Headers;
+
+/**
+ * A set of headers registered once from GDScript and then referenced by name, so requests only
+ * carry the headers that differ. Validated and turned into OkHttp Headers up front.
+ */
+final class HeaderProfile {
+
+    final Headers headers;
+    final String contentType;
+
+    private HeaderProfile(Headers headers, String contentType) {
+        this.headers = headers;
+        this.contentType = contentType;
+    }
+
+    /**
+     * Builds a profile, or throws IllegalArgumentException naming every malformed entry.
+     */
+    static HeaderProfile build(String[] headers) {
+        final Headers.Builder builder = new Headers.Builder();
+        final List<String> malformed = new ArrayList<>();
+        String contentType = HeaderParser.parse(headers, new HeaderParser.Sink() {
+            @Override
+            public void header(String name, String value) {
+                builder.add(name, value);
+            }
+
+            @Override
+            public void malformed(String header) {
+                malformed.add(header);
+            }
+        });
+        if (!malformed.isEmpty()) throw new IllegalArgumentException("Malformed headers: " + malformed);
+        return new HeaderProfile(builder.build(), contentType);
+    }
+}
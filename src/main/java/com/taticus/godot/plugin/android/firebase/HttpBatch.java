@@ -0,0 +1,90 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the results of a batch of requests and reports them once, either when every request
+ * has finished or when the batch times out. In all-or-nothing mode a timeout fails every item,
+ * including the ones that already finished.
+ */
+final class HttpBatch implements HttpResponseListener {
+
+    interface Listener {
+        void onBatchCompleted(int batchId, List<Map<String, Object>> results, boolean complete);
+    }
+
+    interface Canceller {
+        void cancel(int requestId);
+    }
+
+    private final int batchId;
+    private final boolean allOrNothing;
+    private final Listener listener;
+    private final int[] requestIds;
+    private final List<Map<String, Object>> results;
+    private int remaining;
+    private boolean done;
+
+    HttpBatch(int batchId, int size, boolean allOrNothing, Listener listener) {
+        this.batchId = batchId;
+        this.allOrNothing = allOrNothing;
+        this.listener = listener;
+        this.requestIds = new int[size];
+        this.results = new ArrayList<>(Collections.<Map<String, Object>>nCopies(size, null));
+        this.remaining = size;
+    }
+
+    synchronized void setRequestId(int index, int requestId) {
+        requestIds[index] = requestId;
+    }
+
+    @Override
+    public void onHttpResponse(int id, HttpResult result) {
+        synchronized (this) {
+            if (done) return;
+            int index = indexOf(id);
+            if (index < 0 || results.get(index) != null) return;
+            results.set(index, toMap(id, result));
+            if (--remaining > 0) return;
+            done = true;
+        }
+        listener.onBatchCompleted(batchId, results, true);
+    }
+
+    void timeout(Canceller canceller) {
+        synchronized (this) {
+            if (done) return;
+            done = true;
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i) == null) {
+                    canceller.cancel(requestIds[i]);
+                    results.set(i, toMap(requestIds[i], HttpResult.failure("Timeout")));
+                } else if (allOrNothing) {
+                    results.set(i, toMap(requestIds[i], HttpResult.failure("Batch timed out")));
+                }
+            }
+        }
+        listener.onBatchCompleted(batchId, results, false);
+    }
+
+    private int indexOf(int requestId) {
+        for (int i = 0; i < requestIds.length; i++) {
+            if (requestIds[i] == requestId) return i;
+        }
+        return -1;
+    }
+
+    private static Map<String, Object> toMap(int id, HttpResult result) {
+        Map<String, Object> item = new HashMap<>();
+        item.put("id", id);
+        item.put("code", result.code);
+        item.put("body", result.body);
+        if (result.json != null) item.put("json", result.json);
+        item.put("cached", result.cached);
+        return item;
+    }
+}
@@ -0,0 +1,71 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * Settings of the shared OkHttpClient, passed from GDScript as a Dictionary to configure_http.
+ * Options that are left out keep their current value.
+ */
+final class HttpClientConfig {
+
+    int maxIdleConnections = 5;
+    int keepAliveSeconds = 300;
+    boolean http2 = true;
+    int connectTimeoutMs = 15000;
+    int readTimeoutMs = 10000;
+    int writeTimeoutMs = 10000;
+    int callTimeoutMs;
+
+    HttpClientConfig copy() {
+        HttpClientConfig copy = new HttpClientConfig();
+        copy.maxIdleConnections = maxIdleConnections;
+        copy.keepAliveSeconds = keepAliveSeconds;
+        copy.http2 = http2;
+        copy.connectTimeoutMs = connectTimeoutMs;
+        copy.readTimeoutMs = readTimeoutMs;
+        copy.writeTimeoutMs = writeTimeoutMs;
+        copy.callTimeoutMs = callTimeoutMs;
+        return copy;
+    }
+
+    HttpClientConfig merge(Map<String, Object> options) {
+        HttpClientConfig result = copy();
+        result.maxIdleConnections = Math.max(0, Options.getInt(options, "max_idle_connections", maxIdleConnections));
+        result.keepAliveSeconds = Math.max(1, Options.getInt(options, "keep_alive_seconds", keepAliveSeconds));
+        result.http2 = Options.getBoolean(options, "http2", http2);
+        result.connectTimeoutMs = Math.max(0, Options.getInt(options, "connect_timeout_ms", connectTimeoutMs));
+        result.readTimeoutMs = Math.max(0, Options.getInt(options, "read_timeout_ms", readTimeoutMs));
+        result.writeTimeoutMs = Math.max(0, Options.getInt(options, "write_timeout_ms", writeTimeoutMs));
+        result.callTimeoutMs = Math.max(0, Options.getInt(options, "call_timeout_ms", callTimeoutMs));
+        return result;
+    }
+
+    boolean samePool(HttpClientConfig other) {
+        return maxIdleConnections == other.maxIdleConnections && keepAliveSeconds == other.keepAliveSeconds;
+    }
+
+    ConnectionPool newPool() {
+        return new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Applies everything but the connection pool, which the caller only replaces when its
+     * settings changed so warm connections survive other changes.
+     */
+    OkHttpClient.Builder apply(OkHttpClient.Builder builder) {
+        // HTTP/2 is only negotiated over TLS with ALPN; plain http:// requests stay on HTTP/1.1.
+        return builder
+                .protocols(http2 ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1) : Collections.singletonList(Protocol.HTTP_1_1))
+                .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(writeTimeoutMs, TimeUnit.MILLISECONDS)
+                .callTimeout(callTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,215 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Streams a response body straight into a file through a fixed-size buffer, so memory use does
+ * not depend on the size of the download. The body is written to a ".part" file first and only
+ * moved to its destination once it has been fully received.
+ *
+ * <p>Downloads run as background jobs of the {@link HttpScheduler}, hold their slot until the
+ * file is written, and are checked against the host's circuit breaker like any other request.
+ * A cancelled download reports nothing and leaves no partial file behind.
+ */
+final class HttpDownload extends HttpScheduler.Job implements Callback, HttpRequests.Cancellable {
+
+    interface Listener {
+        void onProgress(int id, long bytes, long total);
+
+        void onCompleted(int id, int code, String result);
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final int id;
+    private final Request request;
+    private final File destination;
+    private final HttpServices services;
+    private final Listener listener;
+
+    private Call call;
+    private boolean cancelled;
+
+    HttpDownload(int id, Request request, String destPath, HttpServices services, Listener listener) {
+        super(request.url().host(), HttpScheduler.BACKGROUND);
+        this.id = id;
+        this.request = request;
+        this.destination = new File(destPath);
+        this.services = services;
+        this.listener = listener;
+    }
+
+    void start() {
+        services.scheduler.submit(this);
+    }
+
+    @Override
+    public void cancel(int id) {
+        Call toCancel;
+        synchronized (this) {
+            if (cancelled) return;
+            cancelled = true;
+            toCancel = call;
+        }
+
+        if (!services.scheduler.cancel(this) && toCancel != null) toCancel.cancel();
+    }
+
+    private synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    void run() {
+        if (isCancelled()) {
+            services.scheduler.finished(this);
+            return;
+        }
+
+        if (!services.breakers.allow(host, System.currentTimeMillis())) {
+            services.retryPolicy.onShortCircuit();
+            services.scheduler.finished(this);
+            completed(0, "Circuit breaker open for " + host);
+            return;
+        }
+
+        Call newCall;
+        OkHttpClient client = services.client;
+        synchronized (this) {
+            newCall = cancelled ? null : client.newCall(request);
+            call = newCall;
+        }
+
+        if (newCall == null) {
+            services.scheduler.finished(this);
+        } else {
+            newCall.enqueue(this);
+        }
+    }
+
+    @Override
+    public void onFailure(Call call, IOException e) {
+        services.scheduler.finished(this);
+        if (!call.isCanceled()) services.breakers.onFailure(host, System.currentTimeMillis());
+        completed(0, e.getMessage());
+    }
+
+    @Override
+    public void onResponse(Call call, Response response) {
+        int code = response.code();
+        if (code >= 500) {
+            services.breakers.onFailure(host, System.currentTimeMillis());
+        } else {
+            services.breakers.onSuccess(host);
+        }
+
+        try {
+            save(code, response);
+        } finally {
+            response.close();
+            services.scheduler.finished(this);
+        }
+    }
+
+    private void save(int code, Response response) {
+        ResponseBody body = response.body();
+        if (body == null || !response.isSuccessful()) {
+            completed(code, "");
+            return;
+        }
+
+        File partial = new File(destination.getPath() + ".part");
+        try {
+            File parent = partial.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Unable to create " + parent);
+            }
+
+            long total = body.contentLength();
+            CountingInputStream counter = new CountingInputStream(body.byteStream());
+            InputStream in = ContentDecoder.decode(counter, response.header("content-encoding"));
+            OutputStream out = new FileOutputStream(partial);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long lastProgress = System.nanoTime();
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    long now = System.nanoTime();
+                    if (now - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+                        lastProgress = now;
+                        if (isCancelled()) throw new IOException("Canceled");
+                        listener.onProgress(id, counter.count, total);
+                    }
+                }
+            } finally {
+                out.close();
+                in.close();
+            }
+
+            if (destination.exists() && !destination.delete()) {
+                throw new IOException("Unable to replace " + destination);
+            }
+            if (!partial.renameTo(destination)) {
+                throw new IOException("Unable to move download to " + destination);
+            }
+
+            if (!isCancelled()) listener.onProgress(id, counter.count, total);
+            completed(code, destination.getPath());
+        } catch (IOException e) {
+            partial.delete();
+            completed(0, e.getMessage());
+        } catch (RuntimeException e) {
+            // For example a SecurityException from the file system; the caller still gets an answer.
+            partial.delete();
+            completed(0, String.valueOf(e));
+        }
+    }
+
+    private void completed(int code, String result) {
+        if (!isCancelled()) listener.onCompleted(id, code, result);
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * A single network exchange scheduled by {@link HttpScheduler}. Several request handles may wait
+ * on the same exchange when their requests were coalesced; the exchange is only cancelled on the
+ * wire once every handle waiting on it has been cancelled.
+ *
+ * <p>Failed attempts of idempotent requests are retried through the scheduler after a backoff
+ * delay, and every attempt is checked against the host's circuit breaker first. Authenticated
+ * exchanges get a bearer token from the {@link IdTokenCache} before they are scheduled and
+ * refresh it once if the server answers 401.
+ */
+final class HttpExchange extends HttpScheduler.Job implements Callback, HttpRequests.Cancellable {
+
+    private Request request;
+    private final HttpServices services;
+    private final String coalesceKey;
+    private final int maxRetries;
+    private final boolean auth;
+    private final int responseFormat;
+    private final JsonParser.Projection projection;
+    private final long createdNanos = System.nanoTime();
+
+    private final LinkedHashMap<Integer, HttpResponseListener> waiters = new LinkedHashMap<>();
+    private Call call;
+    private boolean done;
+    private int attempt;
+    private boolean authRefreshed;
+    private HttpPhases phases;
+
+    HttpExchange(Request request, int priority, HttpServices services, String coalesceKey,
+                 int maxRetries, boolean auth, int responseFormat, JsonParser.Projection projection) {
+        super(request.url().host(), priority);
+        this.request = request;
+        this.services = services;
+        this.coalesceKey = coalesceKey;
+        this.maxRetries = RetryPolicy.isRetryable(request) ? maxRetries : 0;
+        this.auth = auth;
+        this.responseFormat = responseFormat;
+        this.projection = projection;
+    }
+
+    void start() {
+        if (auth) {
+            authorize(false);
+        } else {
+            services.scheduler.submit(this);
+        }
+    }
+
+    private void authorize(boolean forceRefresh) {
+        services.idTokens.get(forceRefresh, new IdTokenCache.Listener() {
+            @Override
+            public void onToken(String token) {
+                synchronized (HttpExchange.this) {
+                    request = request.newBuilder().header("Authorization", "Bearer " + token).build();
+                }
+                services.scheduler.submit(HttpExchange.this);
+            }
+
+            @Override
+            public void onError(String message) {
+                complete(HttpResult.failure("Unable to get id token: " + message));
+            }
+        });
+    }
+
+    synchronized boolean addWaiter(int id, HttpResponseListener listener) {
+        if (done) return false;
+        waiters.put(id, listener);
+        return true;
+    }
+
+    @Override
+    public void cancel(int id) {
+        Call toCancel;
+        synchronized (this) {
+            if (done || waiters.remove(id) == null || !waiters.isEmpty()) return;
+            done = true;
+            toCancel = call;
+        }
+
+        if (coalesceKey != null) services.coalescer.remove(coalesceKey, this);
+        if (!services.scheduler.cancel(this) && toCancel != null) toCancel.cancel();
+    }
+
+    @Override
+    void run() {
+        synchronized (this) {
+            if (done) {
+                services.scheduler.finished(this);
+                return;
+            }
+        }
+
+        if (!services.breakers.allow(host, System.currentTimeMillis())) {
+            services.retryPolicy.onShortCircuit();
+            services.scheduler.finished(this);
+            complete(HttpResult.failure("Circuit breaker open for " + host));
+            return;
+        }
+
+        // Each attempt gets its own phase recorder, handed to OkHttp through the request tag.
+        HttpPhases.MetricFactory metrics = services.metrics;
+        HttpPhases attemptPhases = new HttpPhases(metrics != null ? metrics.create(request) : null);
+
+        Call newCall;
+        OkHttpClient client = services.client;
+        synchronized (this) {
+            phases = attemptPhases;
+            newCall = done ? null : client.newCall(request.newBuilder().tag(attemptPhases).build());
+            call = newCall;
+        }
+
+        if (newCall == null) {
+            services.scheduler.finished(this);
+        } else {
+            newCall.enqueue(this);
+        }
+    }
+
+    @Override
+    public void onFailure(Call call, IOException e) {
+        services.scheduler.finished(this);
+        if (call.isCanceled()) {
+            complete(HttpResult.failure(e.getMessage()));
+            return;
+        }
+
+        services.breakers.onFailure(host, System.currentTimeMillis());
+        if (!retry(null)) complete(HttpResult.failure(e.getMessage()));
+    }
+
+    @Override
+    public void onResponse(Call call, Response response) {
+        int code = response.code();
+        if (code == 401 && auth && !authRefreshed) {
+            response.close();
+            services.scheduler.finished(this);
+            synchronized (this) {
+                authRefreshed = true;
+                this.call = null;
+                if (done) return;
+            }
+            services.idTokens.invalidate();
+            authorize(true);
+            return;
+        }
+
+        if (code >= 500) {
+            services.breakers.onFailure(host, System.currentTimeMillis());
+        } else {
+            services.breakers.onSuccess(host);
+        }
+
+        if (RetryPolicy.isRetryableStatus(code) && attempt < maxRetries) {
+            String retryAfter = response.header("Retry-After");
+            response.close();
+            services.scheduler.finished(this);
+            if (retry(retryAfter)) return;
+            complete(HttpResult.failure("HTTP " + code));
+            return;
+        }
+
+        ResponseBody body = response.body();
+        HttpResult result;
+        try {
+            String contentEncoding = response.header("content-encoding");
+            boolean cached = response.networkResponse() == null;
+            if (responseFormat == HttpResult.FORMAT_JSON) {
+                result = readJson(code, body, contentEncoding, cached);
+            } else if (responseFormat == HttpResult.FORMAT_BYTES) {
+                result = new HttpResult(code, null, body != null ? ContentDecoder.readBytes(body, contentEncoding) : new byte[0], cached);
+            } else {
+                result = new HttpResult(code, body != null ? ContentDecoder.readString(body, contentEncoding) : "", cached);
+            }
+            synchronized (this) {
+                if (phases != null) result.phases = phases.toMap();
+            }
+        } catch (IOException e) {
+            result = HttpResult.failure(e.getMessage());
+        } catch (RuntimeException e) {
+            // A decoder or parser bug must still free the slot and answer every waiter.
+            response.close();
+            result = HttpResult.failure(String.valueOf(e));
+        }
+        services.scheduler.finished(this);
+        complete(result);
+    }
+
+    /**
+     * Parses the body on the OkHttp thread, straight from the decoded network stream. A body that
+     * is not valid JSON keeps the status code and carries the parse error in the result body.
+     */
+    private HttpResult readJson(int code, ResponseBody body, String contentEncoding, boolean cached) throws IOException {
+        HttpResult result = new HttpResult(code, null, cached);
+        if (body == null) return result;
+
+        MediaType contentType = body.contentType();
+        Charset charset = contentType != null ? contentType.charset() : null;
+        InputStreamReader reader = new InputStreamReader(ContentDecoder.decode(body.byteStream(), contentEncoding),
+                charset != null ? charset : StandardCharsets.UTF_8);
+        try {
+            result.json = new JsonParser(reader, services.jsonObjects).parse(projection);
+            return result;
+        } catch (JsonParser.SyntaxException e) {
+            return new HttpResult(code, e.getMessage(), cached);
+        } finally {
+            reader.close();
+            body.close();
+        }
+    }
+
+    private boolean retry(String retryAfter) {
+        synchronized (this) {
+            if (done) return true;
+            if (attempt >= maxRetries) {
+                if (maxRetries > 0) services.retryPolicy.onExhausted();
+                return false;
+            }
+            attempt++;
+            call = null;
+        }
+
+        services.retryPolicy.onRetry();
+        long delay = services.retryPolicy.delayMillis(attempt - 1, retryAfter);
+        services.timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                services.scheduler.submit(HttpExchange.this);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private void complete(HttpResult result) {
+        if (coalesceKey != null) services.coalescer.remove(coalesceKey, this);
+
+        Map<Integer, HttpResponseListener> ready;
+        synchronized (this) {
+            if (done && waiters.isEmpty()) return;
+            done = true;
+            ready = new LinkedHashMap<>(waiters);
+            waiters.clear();
+        }
+
+        result.retries = attempt;
+        services.stats.histogram("http.latency").recordNanos(System.nanoTime() - createdNanos);
+        services.stats.counter(result.code == 0 ? "http.failed" : "http.completed").increment();
+        for (Map.Entry<Integer, HttpResponseListener> waiter : ready.entrySet()) {
+            waiter.getValue().onHttpResponse(waiter.getKey(), result);
+        }
+    }
+}
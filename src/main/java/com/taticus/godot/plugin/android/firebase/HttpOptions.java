@@ -0,0 +1,76 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Per-request options passed from GDScript as a Dictionary to http_request_with_options.
+ */
+final class HttpOptions {
+
+    static final HttpOptions DEFAULT = new HttpOptions();
+
+    int maxStale = -1;
+    boolean noCache;
+    boolean coalesce = true;
+    String priority;
+    int timeoutMs;
+    boolean allOrNothing;
+    int maxRetries = -1;
+    boolean auth;
+    boolean durable;
+    String idempotencyKey;
+    int responseFormat = HttpResult.FORMAT_TEXT;
+    JsonParser.Projection jsonPointer;
+    String headerProfile;
+
+    static HttpOptions parse(Map<String, Object> options, HttpRequests.Warnings warnings) {
+        return parse(options, HttpResult.FORMAT_TEXT, warnings);
+    }
+
+    /**
+     * Unknown response formats and invalid JSON pointers are reported to warnings and ignored
+     * rather than failing the call.
+     */
+    static HttpOptions parse(Map<String, Object> options, int responseFormat, HttpRequests.Warnings warnings) {
+        if ((options == null || options.isEmpty()) && responseFormat == HttpResult.FORMAT_TEXT) return DEFAULT;
+
+        HttpOptions result = new HttpOptions();
+        result.responseFormat = responseFormat;
+        if (options == null) return result;
+
+        result.maxStale = Options.getInt(options, "max_stale", result.maxStale);
+        result.noCache = Options.getBoolean(options, "no_cache", result.noCache);
+        result.coalesce = Options.getBoolean(options, "coalesce", result.coalesce);
+        result.priority = Options.getString(options, "priority", result.priority);
+        result.timeoutMs = Options.getInt(options, "timeout_ms", result.timeoutMs);
+        result.allOrNothing = Options.getBoolean(options, "all_or_nothing", result.allOrNothing);
+        result.maxRetries = Options.getInt(options, "max_retries", result.maxRetries);
+        result.auth = Options.getBoolean(options, "auth", result.auth);
+        result.durable = Options.getBoolean(options, "durable", result.durable);
+        result.idempotencyKey = Options.getString(options, "idempotency_key", result.idempotencyKey);
+        result.responseFormat = parseResponseFormat(Options.getString(options, "response_format", null), result.responseFormat, warnings);
+        try {
+            result.jsonPointer = JsonParser.Projection.of(options.get("json_pointer"));
+        } catch (IllegalArgumentException e) {
+            warnings.warn("Ignoring json_pointer: " + e.getMessage());
+        }
+        result.headerProfile = Options.getString(options, "header_profile", result.headerProfile);
+        return result;
+    }
+
+    static int parseResponseFormat(String format, int defaultValue, HttpRequests.Warnings warnings) {
+        if (format == null) return defaultValue;
+        switch (format.toLowerCase(Locale.ROOT)) {
+            case "json":
+                return HttpResult.FORMAT_JSON;
+            case "bytes":
+                return HttpResult.FORMAT_BYTES;
+            case "text":
+                return HttpResult.FORMAT_TEXT;
+            default:
+                warnings.warn("Unknown response_format " + format + ", using text");
+                return HttpResult.FORMAT_TEXT;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Records the network phases of one call attempt: DNS, connect, TLS, request write, time to first
+ * byte and body read, plus payload sizes. {@link HttpExchange} attaches a fresh instance to each
+ * attempt as the request tag and {@link #FACTORY} hands it to OkHttp. When a {@link Metric} is
+ * given, the same events drive a Firebase Performance HttpMetric so its timings match the wire.
+ */
+final class HttpPhases extends EventListener {
+
+    interface Metric {
+        void start();
+
+        void requestComplete();
+
+        void responseStart();
+
+        void stop(int code, long requestBytes, long responseBytes, String contentType);
+    }
+
+    interface MetricFactory {
+        Metric create(Request request);
+    }
+
+    static final EventListener.Factory FACTORY = new EventListener.Factory() {
+        @Override
+        public EventListener create(Call call) {
+            Object tag = call.request().tag();
+            return tag instanceof HttpPhases ? (HttpPhases) tag : EventListener.NONE;
+        }
+    };
+
+    private final Metric metric;
+
+    private long callStart;
+    private long dnsStart;
+    private long dnsEnd;
+    private long connectStart;
+    private long connectEnd;
+    private long secureStart;
+    private long secureEnd;
+    private long requestStart;
+    private long requestEnd;
+    private long responseStart;
+    private long bodyStart;
+    private long bodyEnd;
+    private long requestBytes;
+    private long responseBytes;
+    private int code;
+    private String contentType;
+    private String protocol;
+    private boolean stopped;
+
+    HttpPhases(Metric metric) {
+        this.metric = metric;
+    }
+
+    @Override
+    public void callStart(Call call) {
+        callStart = System.nanoTime();
+        if (metric != null) metric.start();
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        dnsStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> addresses) {
+        dnsEnd = System.nanoTime();
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+        connectStart = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+        secureStart = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        secureEnd = System.nanoTime();
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol) {
+        connectEnd = System.nanoTime();
+    }
+
+    @Override
+    public void connectionAcquired(Call call, Connection connection) {
+        protocol = String.valueOf(connection.protocol());
+    }
+
+    @Override
+    public void requestHeadersStart(Call call) {
+        requestStart = System.nanoTime();
+    }
+
+    @Override
+    public void requestHeadersEnd(Call call, Request request) {
+        requestEnd = System.nanoTime();
+    }
+
+    @Override
+    public void requestBodyEnd(Call call, long byteCount) {
+        requestEnd = System.nanoTime();
+        requestBytes = byteCount;
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+        responseStart = System.nanoTime();
+        if (metric != null) {
+            metric.requestComplete();
+            metric.responseStart();
+        }
+    }
+
+    @Override
+    public void responseHeadersEnd(Call call, Response response) {
+        code = response.code();
+        contentType = response.header("Content-Type");
+    }
+
+    @Override
+    public void responseBodyStart(Call call) {
+        bodyStart = System.nanoTime();
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+        bodyEnd = System.nanoTime();
+        responseBytes = byteCount;
+    }
+
+    @Override
+    public void callEnd(Call call) {
+        stop();
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+        stop();
+    }
+
+    private void stop() {
+        if (stopped) return;
+        stopped = true;
+        if (metric != null) metric.stop(code, requestBytes, responseBytes, contentType);
+    }
+
+    /**
+     * Phase durations in milliseconds; phases that did not happen (DNS and connect on a reused
+     * connection, for instance) are reported as 0.
+     */
+    Map<String, Object> toMap() {
+        Map<String, Object> phases = new HashMap<>();
+        phases.put("dns_ms", millis(dnsStart, dnsEnd));
+        phases.put("connect_ms", millis(connectStart, connectEnd));
+        phases.put("tls_ms", millis(secureStart, secureEnd));
+        phases.put("request_write_ms", millis(requestStart, requestEnd));
+        phases.put("ttfb_ms", millis(requestEnd, responseStart));
+        phases.put("body_read_ms", millis(bodyStart, bodyEnd));
+        phases.put("total_ms", millis(callStart, bodyEnd != 0 ? bodyEnd : responseStart));
+        phases.put("request_bytes", (int) requestBytes);
+        phases.put("response_bytes", (int) responseBytes);
+        phases.put("connection_reused", connectStart == 0);
+        phases.put("protocol", protocol != null ? protocol : "");
+        return phases;
+    }
+
+    private static double millis(long start, long end) {
+        return start != 0 && end >= start ? (end - start) / 1e6 : 0.0;
+    }
+}
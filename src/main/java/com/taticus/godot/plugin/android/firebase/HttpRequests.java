@@ -0,0 +1,160 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.CacheControl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+/**
+ * Turns http_request arguments into OkHttp requests and submits them as HttpExchanges or
+ * HttpDownloads, keeping the in-flight ones by request id for cancellation. Has no Android
+ * dependencies so the load test drives exactly the path GDScript requests take.
+ */
+final class HttpRequests {
+
+    interface Warnings {
+        void warn(String message);
+    }
+
+    /**
+     * Work started under a request id.
+     */
+    interface Cancellable {
+        void cancel(int id);
+    }
+
+    final ConcurrentHashMap<String, HeaderProfile> profiles = new ConcurrentHashMap<>();
+    final Warnings warnings;
+
+    private final ConcurrentHashMap<Integer, Cancellable> inFlight = new ConcurrentHashMap<>();
+    private final HttpServices http;
+
+    HttpRequests(HttpServices http, Warnings warnings) {
+        this.http = http;
+        this.warnings = warnings;
+    }
+
+    Request build(String url, String[] headers, String method, String body, HttpOptions httpOptions) {
+        Request.Builder builder = new Request.Builder()
+                .url(url);
+
+        String contentType = applyHeaders(builder, headers, httpOptions);
+        builder.method(method, body != null && method.equals("POST") ? RequestBody.create(MediaType.get(contentType), body) : null);
+        applyCacheControl(builder, httpOptions);
+        return builder.build();
+    }
+
+    Request buildRaw(String url, String[] headers, String method, byte[] body, HttpOptions httpOptions) {
+        Request.Builder builder = new Request.Builder()
+                .url(url);
+
+        MediaType contentType = MediaType.get(applyHeaders(builder, headers, httpOptions));
+        // OkHttp refuses a body on GET and HEAD and requires one on POST, PUT and PATCH.
+        boolean permitsBody = !method.equals("GET") && !method.equals("HEAD");
+        builder.method(method, permitsBody ? RequestBody.create(contentType, body != null ? body : new byte[0]) : null);
+        applyCacheControl(builder, httpOptions);
+        return builder.build();
+    }
+
+    void submit(int id, Request request, HttpOptions httpOptions, HttpResponseListener listener) {
+        String coalesceKey = httpOptions.coalesce && "GET".equals(request.method()) ? http.coalescer.key(request, httpOptions.auth, httpOptions.responseFormat, httpOptions.jsonPointer) : null;
+        int maxRetries = httpOptions.maxRetries >= 0 ? httpOptions.maxRetries : http.retryPolicy.maxRetries();
+        HttpExchange exchange = new HttpExchange(request, HttpScheduler.parsePriority(httpOptions.priority),
+                http, coalesceKey, maxRetries, httpOptions.auth, httpOptions.responseFormat, httpOptions.jsonPointer);
+
+        inFlight.put(id, exchange);
+        if (coalesceKey != null) {
+            HttpExchange joined = http.coalescer.join(coalesceKey, exchange, id, listener);
+            if (joined != exchange) {
+                inFlight.replace(id, exchange, joined);
+                return;
+            }
+        } else {
+            exchange.addWaiter(id, listener);
+        }
+
+        exchange.start();
+    }
+
+    void download(int id, Request request, String destPath, HttpDownload.Listener listener) {
+        HttpDownload download = new HttpDownload(id, request, destPath, http, listener);
+        inFlight.put(id, download);
+        download.start();
+    }
+
+    /**
+     * Forgets a finished request.
+     */
+    void remove(int id) {
+        inFlight.remove(id);
+    }
+
+    /**
+     * Cancels a request or download. Returns false if the id is unknown or already finished.
+     */
+    boolean cancel(int id) {
+        Cancellable cancellable = inFlight.remove(id);
+        if (cancellable == null) return false;
+
+        cancellable.cancel(id);
+        return true;
+    }
+
+    Set<Integer> ids() {
+        return inFlight.keySet();
+    }
+
+    int size() {
+        return inFlight.size();
+    }
+
+    /**
+     * Starts from the request's header profile, if any. The first request header of a name
+     * replaces the profile's entries of that name and repeated ones are appended, so a request
+     * sends the same headers with or without a profile. An unknown profile is reported and
+     * skipped. Returns the Content-Type.
+     */
+    private String applyHeaders(final Request.Builder builder, String[] headers, HttpOptions httpOptions) {
+        HeaderProfile profile = null;
+        if (httpOptions.headerProfile != null) {
+            profile = profiles.get(httpOptions.headerProfile);
+            if (profile == null) {
+                warnings.warn("Unknown header profile " + httpOptions.headerProfile + ", sending the request's headers only");
+            } else {
+                builder.headers(profile.headers);
+            }
+        }
+
+        final HashSet<String> seen = new HashSet<>();
+        HeaderParser.Sink sink = new HeaderParser.Sink() {
+            @Override
+            public void header(String name, String value) {
+                if (seen.add(name.toLowerCase(Locale.ROOT))) {
+                    builder.header(name, value);
+                } else {
+                    builder.addHeader(name, value);
+                }
+            }
+
+            @Override
+            public void malformed(String header) {
+                warnings.warn("Ignoring malformed header: " + header);
+            }
+        };
+        return profile != null ? HeaderParser.parse(headers, profile.contentType, sink) : HeaderParser.parse(headers, sink);
+    }
+
+    private static void applyCacheControl(Request.Builder builder, HttpOptions httpOptions) {
+        if (httpOptions.noCache) {
+            builder.cacheControl(new CacheControl.Builder().noCache().build());
+        } else if (httpOptions.maxStale >= 0) {
+            builder.cacheControl(new CacheControl.Builder().maxStale(httpOptions.maxStale, TimeUnit.SECONDS).build());
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Cache;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * Size-bounded LRU disk cache for http_request. OkHttp takes care of Cache-Control and of
+ * revalidating stored entries with If-None-Match/If-Modified-Since; this class only owns the
+ * cache and counts how each response was served.
+ *
+ * <p>Every call on a client with this cache goes through {@link #interceptor()}, which keeps the
+ * cache open until the call's response body is closed. A cache that was replaced is
+ * {@link #retire() retired} and deleted once its last call is done, since OkHttp fails calls that
+ * still read or write a closed cache.
+ */
+final class HttpResponseCache {
+
+    private final Cache cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final Interceptor interceptor = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            if (!acquire()) throw new IOException("HTTP cache was replaced");
+
+            boolean handedOff = false;
+            try {
+                Response response = chain.proceed(chain.request());
+                record(response);
+                ResponseBody body = response.body();
+                Response result = body != null
+                        ? response.newBuilder().body(new ReleasingBody(body)).build()
+                        : response;
+                handedOff = body != null;
+                return result;
+            } finally {
+                if (!handedOff) release();
+            }
+        }
+    };
+
+    private int inFlight;
+    private boolean retired;
+    private boolean closed;
+
+    HttpResponseCache(File directory, long maxSize) {
+        this.cache = new Cache(directory, maxSize);
+    }
+
+    Cache cache() {
+        return cache;
+    }
+
+    Interceptor interceptor() {
+        return interceptor;
+    }
+
+    boolean matches(File directory, long maxSize) {
+        return cache.directory().equals(directory) && cache.maxSize() == maxSize;
+    }
+
+    /**
+     * Deletes the cache once no call uses it any more. Calls that reach the interceptor after
+     * that fail with an IOException rather than with OkHttp's IllegalStateException.
+     */
+    void retire() {
+        boolean close;
+        synchronized (this) {
+            retired = true;
+            close = inFlight == 0 && !closed;
+            if (close) closed = true;
+        }
+        if (close) delete();
+    }
+
+    private synchronized boolean acquire() {
+        if (closed) return false;
+        inFlight++;
+        return true;
+    }
+
+    private void release() {
+        boolean close;
+        synchronized (this) {
+            close = --inFlight == 0 && retired && !closed;
+            if (close) closed = true;
+        }
+        if (close) delete();
+    }
+
+    private void delete() {
+        try {
+            cache.delete();
+        } catch (IOException e) {
+            // The entries of a replaced cache are never read again; at worst they stay on disk.
+        }
+    }
+
+    private void record(Response response) {
+        if (response.cacheResponse() == null) {
+            misses.incrementAndGet();
+        } else if (response.networkResponse() == null) {
+            hits.incrementAndGet();
+        } else {
+            revalidations.incrementAndGet();
+        }
+    }
+
+    void clear() throws IOException {
+        cache.evictAll();
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("hits", (int) hits.get());
+        stats.put("misses", (int) misses.get());
+        stats.put("revalidations", (int) revalidations.get());
+        long size;
+        try {
+            size = cache.size();
+        } catch (IOException e) {
+            size = -1L;
+        }
+        stats.put("bytes", (int) size);
+        stats.put("max_bytes", (int) cache.maxSize());
+        return stats;
+    }
+
+    /**
+     * Releases the cache when the response body is closed; OkHttp writes the cached copy of a
+     * network response while the body is read.
+     */
+    private final class ReleasingBody extends ResponseBody {
+        private final ResponseBody delegate;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private BufferedSource source;
+
+        ReleasingBody(ResponseBody delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public synchronized BufferedSource source() {
+            if (source == null) {
+                source = Okio.buffer(new ForwardingSource(delegate.source()) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            if (released.compareAndSet(false, true)) release();
+                        }
+                    }
+                });
+            }
+            return source;
+        }
+    }
+}
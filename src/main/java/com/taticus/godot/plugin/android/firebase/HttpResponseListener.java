@@ -0,0 +1,9 @@
+package com.taticus.godot.plugin.android.firebase;
+
+interface HttpResponseListener {
+    /**
+     * Called once per request handle with the result of its exchange. Failed requests have code
+     * 0 and the error message as body. Cancelled handles are never called back.
+     */
+    void onHttpResponse(int id, HttpResult result);
+}
@@ -0,0 +1,39 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.Map;
+
+/**
+ * Outcome of one HTTP exchange, shared by every request handle waiting on it.
+ */
+final class HttpResult {
+
+    /** Body decoded with the response charset into {@link #body}. */
+    static final int FORMAT_TEXT = 0;
+    /** Body left as bytes in {@link #bytes}; {@link #body} only carries error messages. */
+    static final int FORMAT_BYTES = 1;
+    /** Body parsed into {@link #json}; {@link #body} only carries error messages. */
+    static final int FORMAT_JSON = 2;
+
+    final int code;
+    final String body;
+    final byte[] bytes;
+    Object json;
+    final boolean cached;
+    int retries;
+    Map<String, Object> phases;
+
+    HttpResult(int code, String body, boolean cached) {
+        this(code, body, null, cached);
+    }
+
+    HttpResult(int code, String body, byte[] bytes, boolean cached) {
+        this.code = code;
+        this.body = body;
+        this.bytes = bytes;
+        this.cached = cached;
+    }
+
+    static HttpResult failure(String message) {
+        return new HttpResult(0, message, false);
+    }
+}
@@ -0,0 +1,147 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Priority-aware request queue in front of OkHttp's dispatcher. Jobs are started in priority
+ * order, subject to a global and a per-host concurrency limit. Background and prefetch jobs may
+ * never take the last slots reserved for interactive ones, so they cannot delay user-facing calls.
+ */
+final class HttpScheduler {
+
+    static final int INTERACTIVE = 0;
+    static final int BACKGROUND = 1;
+    static final int PREFETCH = 2;
+
+    abstract static class Job {
+        final String host;
+        final int priority;
+
+        Job(String host, int priority) {
+            this.host = host;
+            this.priority = priority;
+        }
+
+        abstract void run();
+    }
+
+    private final ArrayDeque<Job>[] queues = newQueues(PREFETCH + 1);
+    private final HashMap<String, Integer> runningPerHost = new HashMap<>();
+    private final HashMap<String, Integer> hostLimits = new HashMap<>();
+
+    private int running;
+    private int maxConcurrency = 16;
+    private int defaultHostConcurrency = 4;
+    private final int interactiveReserve = 2;
+    private int effectiveReserve = interactiveReserve;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ArrayDeque<Job>[] newQueues(int count) {
+        ArrayDeque<Job>[] queues = new ArrayDeque[count];
+        for (int i = 0; i < count; i++) queues[i] = new ArrayDeque<>();
+        return queues;
+    }
+
+    static int parsePriority(String priority) {
+        if (priority == null) return INTERACTIVE;
+        switch (priority.toLowerCase(Locale.ROOT)) {
+            case "background":
+                return BACKGROUND;
+            case "prefetch":
+                return PREFETCH;
+            default:
+                return INTERACTIVE;
+        }
+    }
+
+    /**
+     * Sets the global limit. The interactive reserve shrinks to leave at least one slot for other
+     * priorities and grows back to its configured size when the limit is raised again.
+     */
+    void setMaxConcurrency(int max) {
+        synchronized (this) {
+            maxConcurrency = Math.max(1, max);
+            effectiveReserve = Math.min(interactiveReserve, maxConcurrency - 1);
+        }
+        pump();
+    }
+
+    synchronized void setHostConcurrency(String host, int max) {
+        if (host == null || host.isEmpty() || host.equals("*")) {
+            defaultHostConcurrency = Math.max(1, max);
+        } else if (max <= 0) {
+            hostLimits.remove(host);
+        } else {
+            hostLimits.put(host, max);
+        }
+    }
+
+    synchronized int queuedCount() {
+        return queues[INTERACTIVE].size() + queues[BACKGROUND].size() + queues[PREFETCH].size();
+    }
+
+    synchronized int runningCount() {
+        return running;
+    }
+
+    void submit(Job job) {
+        synchronized (this) {
+            queues[job.priority].add(job);
+        }
+        pump();
+    }
+
+    /**
+     * Removes a job that has not been started yet. Returns false if it is already running.
+     */
+    synchronized boolean cancel(Job job) {
+        return queues[job.priority].remove(job);
+    }
+
+    void finished(Job job) {
+        synchronized (this) {
+            running--;
+            Integer hostRunning = runningPerHost.get(job.host);
+            if (hostRunning == null || hostRunning <= 1) {
+                runningPerHost.remove(job.host);
+            } else {
+                runningPerHost.put(job.host, hostRunning - 1);
+            }
+        }
+        pump();
+    }
+
+    private void pump() {
+        List<Job> ready = new ArrayList<>();
+        synchronized (this) {
+            for (int priority = INTERACTIVE; priority <= PREFETCH; priority++) {
+                int globalLimit = priority == INTERACTIVE ? maxConcurrency : maxConcurrency - effectiveReserve;
+                Iterator<Job> iterator = queues[priority].iterator();
+                while (iterator.hasNext() && running < globalLimit) {
+                    Job job = iterator.next();
+                    Integer hostRunning = runningPerHost.get(job.host);
+                    int hostCount = hostRunning != null ? hostRunning : 0;
+                    if (hostCount >= hostLimit(job.host, priority)) continue;
+
+                    iterator.remove();
+                    running++;
+                    runningPerHost.put(job.host, hostCount + 1);
+                    ready.add(job);
+                }
+            }
+        }
+
+        for (Job job : ready) job.run();
+    }
+
+    private int hostLimit(String host, int priority) {
+        Integer limit = hostLimits.get(host);
+        int max = limit != null ? limit : defaultHostConcurrency;
+        return priority == INTERACTIVE || max == 1 ? max : max - 1;
+    }
+}
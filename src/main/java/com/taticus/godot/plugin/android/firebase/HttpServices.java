@@ -0,0 +1,30 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Collaborators shared by every {@link HttpExchange} of the plugin.
+ */
+final class HttpServices {
+
+    final HttpScheduler scheduler = new HttpScheduler();
+    final RequestCoalescer coalescer = new RequestCoalescer();
+    final RetryPolicy retryPolicy = new RetryPolicy();
+    final CircuitBreakers breakers = new CircuitBreakers();
+    final ScheduledExecutorService timer;
+    final IdTokenCache idTokens;
+    final PluginMetrics stats;
+    // Replaced by configure_http and http_cache_enable; every attempt uses the current client.
+    volatile OkHttpClient client;
+    volatile HttpPhases.MetricFactory metrics;
+    volatile JsonParser.Factory jsonObjects = JsonParser.HASH_MAPS;
+
+    HttpServices(OkHttpClient client, ScheduledExecutorService timer, IdTokenCache idTokens, PluginMetrics stats) {
+        this.client = client;
+        this.timer = timer;
+        this.idTokens = idTokens;
+        this.stats = stats;
+    }
+}
@@ -0,0 +1,148 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the signed-in user's ID token with its expiry and refreshes it in the background
+ * shortly before it expires, so authenticated requests rarely have to wait for a token round
+ * trip. Concurrent requests for a token share one fetch, except that a forced refresh never
+ * joins a non-forced fetch: it starts its own, and the older fetch's result is discarded.
+ */
+final class IdTokenCache {
+
+    interface Source {
+        void fetch(boolean forceRefresh, Callback callback);
+    }
+
+    interface Callback {
+        void onToken(String token, long expiresAtMillis);
+
+        void onError(String message);
+    }
+
+    interface Listener {
+        void onToken(String token);
+
+        void onError(String message);
+    }
+
+    private static final long EXPIRY_MARGIN_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final long REFRESH_AHEAD_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long MIN_REFRESH_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final Source source;
+    private final ScheduledExecutorService timer;
+
+    private String token;
+    private long expiresAt;
+    private boolean fetching;
+    private boolean fetchForced;
+    private long fetchId;
+    private long generation;
+    private ScheduledFuture<?> refresh;
+    private final List<Listener> pending = new ArrayList<>();
+
+    IdTokenCache(Source source, ScheduledExecutorService timer) {
+        this.source = source;
+        this.timer = timer;
+    }
+
+    synchronized String cached() {
+        return token != null && System.currentTimeMillis() < expiresAt - EXPIRY_MARGIN_MILLIS ? token : null;
+    }
+
+    void get(boolean forceRefresh, Listener listener) {
+        String current;
+        final long fetchGeneration;
+        final long currentFetch;
+        synchronized (this) {
+            current = forceRefresh ? null : cached();
+            if (current == null) {
+                pending.add(listener);
+                // A forced refresh must not be answered with the token it is meant to replace.
+                if (fetching && (fetchForced || !forceRefresh)) return;
+                fetching = true;
+                fetchForced = forceRefresh;
+                fetchId++;
+            }
+            fetchGeneration = generation;
+            currentFetch = fetchId;
+        }
+
+        if (current != null) {
+            listener.onToken(current);
+            return;
+        }
+
+        source.fetch(forceRefresh, new Callback() {
+            @Override
+            public void onToken(String token, long expiresAtMillis) {
+                List<Listener> ready;
+                synchronized (IdTokenCache.this) {
+                    // Superseded by a forced fetch, which answers every waiter.
+                    if (currentFetch != fetchId) return;
+                    if (fetchGeneration == generation) {
+                        IdTokenCache.this.token = token;
+                        IdTokenCache.this.expiresAt = expiresAtMillis;
+                        scheduleRefresh(expiresAtMillis);
+                    }
+                    ready = takePending();
+                }
+                for (Listener listener : ready) listener.onToken(token);
+            }
+
+            @Override
+            public void onError(String message) {
+                List<Listener> ready;
+                synchronized (IdTokenCache.this) {
+                    if (currentFetch != fetchId) return;
+                    ready = takePending();
+                }
+                for (Listener listener : ready) listener.onError(message);
+            }
+        });
+    }
+
+    /**
+     * Drops the cached token, e.g. after sign-out or when the server rejected it.
+     */
+    synchronized void invalidate() {
+        token = null;
+        expiresAt = 0L;
+        generation++;
+        if (refresh != null) {
+            refresh.cancel(false);
+            refresh = null;
+        }
+    }
+
+    private List<Listener> takePending() {
+        fetching = false;
+        List<Listener> ready = new ArrayList<>(pending);
+        pending.clear();
+        return ready;
+    }
+
+    private void scheduleRefresh(long expiresAtMillis) {
+        if (refresh != null) refresh.cancel(false);
+        long delay = Math.max(MIN_REFRESH_DELAY_MILLIS, expiresAtMillis - REFRESH_AHEAD_MILLIS - System.currentTimeMillis());
+        refresh = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                get(true, new Listener() {
+                    @Override
+                    public void onToken(String token) {
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                    }
+                });
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,517 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming JSON parser that builds values Godot can take directly: objects become maps from
+ * {@link Factory}, arrays Object[], integers Integer (Long once they no longer fit, Double beyond 64 bits),
+ * other numbers Double. Characters are pulled from the reader in chunks, so a response body never has
+ * to exist as one String.
+ *
+ * <p>With a {@link Projection}, only the values at its JSON pointers are built; every other
+ * subtree is scanned and skipped without allocating.
+ */
+final class JsonParser {
+
+    interface Factory {
+        Map<String, Object> newObject();
+    }
+
+    static final Factory HASH_MAPS = new Factory() {
+        @Override
+        public Map<String, Object> newObject() {
+            return new HashMap<>();
+        }
+    };
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_DEPTH = 512;
+
+    private final Reader in;
+    private final Factory factory;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final StringBuilder text = new StringBuilder();
+    private int position;
+    private int limit;
+    private int depth;
+
+    JsonParser(Reader in, Factory factory) {
+        this.in = in;
+        this.factory = factory;
+    }
+
+    /**
+     * Parses the whole document. Returns null for an empty body. With a projection, returns the
+     * value at its only pointer, or a map from pointer to value when it has several; pointers that
+     * match nothing are left out.
+     */
+    Object parse(Projection projection) throws IOException {
+        if (peek() == -1) return null;
+
+        Object result;
+        if (projection == null) {
+            result = readValue();
+        } else {
+            Map<String, Object> found = factory.newObject();
+            select(projection.root, found);
+            result = projection.single ? found.get(projection.pointers[0]) : found;
+        }
+        if (peek() != -1) throw syntaxError("Unexpected data after the document");
+        return result;
+    }
+
+    private void select(Node node, Map<String, Object> found) throws IOException {
+        if (node.pointer != null) {
+            Object value = readValue();
+            found.put(node.pointer, value);
+            if (node.children != null) resolve(node, value, found);
+            return;
+        }
+
+        int c = peek();
+        if (c == '{') {
+            enter();
+            position++;
+            if (peek() == '}') {
+                position++;
+            } else {
+                do {
+                    String key = readKey();
+                    Node child = node.children.get(key);
+                    if (child != null) {
+                        select(child, found);
+                    } else {
+                        skipValue();
+                    }
+                } while (nextMember('}'));
+            }
+            depth--;
+        } else if (c == '[') {
+            enter();
+            position++;
+            if (peek() == ']') {
+                position++;
+            } else {
+                int index = 0;
+                do {
+                    Node child = node.children.get(Integer.toString(index++));
+                    if (child != null) {
+                        select(child, found);
+                    } else {
+                        skipValue();
+                    }
+                } while (nextMember(']'));
+            }
+            depth--;
+        } else {
+            skipValue();
+        }
+    }
+
+    /**
+     * Looks up the pointers below an already built value.
+     */
+    private static void resolve(Node node, Object value, Map<String, Object> found) {
+        for (Map.Entry<String, Node> entry : node.children.entrySet()) {
+            Object child = null;
+            boolean present = false;
+            if (value instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                present = map.containsKey(entry.getKey());
+                child = map.get(entry.getKey());
+            } else if (value instanceof Object[]) {
+                int index = parseIndex(entry.getKey());
+                Object[] array = (Object[]) value;
+                present = index >= 0 && index < array.length;
+                if (present) child = array[index];
+            }
+            if (!present) continue;
+
+            Node childNode = entry.getValue();
+            if (childNode.pointer != null) found.put(childNode.pointer, child);
+            if (childNode.children != null) resolve(childNode, child, found);
+        }
+    }
+
+    private Object readValue() throws IOException {
+        int c = peek();
+        switch (c) {
+            case '{': {
+                enter();
+                position++;
+                Map<String, Object> object = factory.newObject();
+                if (peek() == '}') {
+                    position++;
+                } else {
+                    do {
+                        String key = readKey();
+                        object.put(key, readValue());
+                    } while (nextMember('}'));
+                }
+                depth--;
+                return object;
+            }
+            case '[': {
+                enter();
+                position++;
+                ArrayList<Object> items = new ArrayList<>();
+                if (peek() == ']') {
+                    position++;
+                } else {
+                    do {
+                        items.add(readValue());
+                    } while (nextMember(']'));
+                }
+                depth--;
+                return items.toArray();
+            }
+            case '"':
+                position++;
+                return readString(true);
+            case 't':
+                expectLiteral("true");
+                return Boolean.TRUE;
+            case 'f':
+                expectLiteral("false");
+                return Boolean.FALSE;
+            case 'n':
+                expectLiteral("null");
+                return null;
+            case -1:
+                throw syntaxError("Unexpected end of JSON");
+            default:
+                return readNumber(true);
+        }
+    }
+
+    private void skipValue() throws IOException {
+        int c = peek();
+        switch (c) {
+            case '{':
+                enter();
+                position++;
+                if (peek() == '}') {
+                    position++;
+                } else {
+                    do {
+                        if (peek() != '"') throw syntaxError("Expected a member name");
+                        position++;
+                        readString(false);
+                        expect(':');
+                        skipValue();
+                    } while (nextMember('}'));
+                }
+                depth--;
+                break;
+            case '[':
+                enter();
+                position++;
+                if (peek() == ']') {
+                    position++;
+                } else {
+                    do {
+                        skipValue();
+                    } while (nextMember(']'));
+                }
+                depth--;
+                break;
+            case '"':
+                position++;
+                readString(false);
+                break;
+            case 't':
+                expectLiteral("true");
+                break;
+            case 'f':
+                expectLiteral("false");
+                break;
+            case 'n':
+                expectLiteral("null");
+                break;
+            case -1:
+                throw syntaxError("Unexpected end of JSON");
+            default:
+                readNumber(false);
+        }
+    }
+
+    private String readKey() throws IOException {
+        if (peek() != '"') throw syntaxError("Expected a member name");
+        position++;
+        String key = readString(true);
+        expect(':');
+        return key;
+    }
+
+    /**
+     * Consumes the separator after an object member or array item and returns whether another
+     * one follows.
+     */
+    private boolean nextMember(char close) throws IOException {
+        int c = peek();
+        position++;
+        if (c == ',') return true;
+        if (c == close) return false;
+        if (c == -1) throw syntaxError("Unexpected end of JSON");
+        throw syntaxError("Expected ',' or '" + close + "'");
+    }
+
+    /**
+     * Reads the rest of a string after its opening quote. Without build, only scans past it.
+     */
+    private String readString(boolean build) throws IOException {
+        if (build) text.setLength(0);
+        while (true) {
+            if (position == limit && !fill()) throw syntaxError("Unterminated string");
+
+            int start = position;
+            while (position < limit) {
+                char c = buffer[position];
+                if (c == '"' || c == '\\') break;
+                if (c < 0x20) throw syntaxError("Control character in string");
+                position++;
+            }
+            if (build) text.append(buffer, start, position - start);
+            if (position == limit) continue;
+
+            char c = buffer[position++];
+            if (c == '"') return build ? text.toString() : null;
+
+            char escaped = readEscape();
+            if (build) text.append(escaped);
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) throw syntaxError("Invalid unicode escape");
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case -1:
+                throw syntaxError("Unterminated string");
+            default:
+                throw syntaxError("Invalid escape '\\" + (char) c + "'");
+        }
+    }
+
+    /**
+     * Reads a number as RFC 8259 defines it: an optional minus, an integer part without leading
+     * zeros, and optional fraction and exponent parts that each have at least one digit.
+     */
+    private Object readNumber(boolean build) throws IOException {
+        text.setLength(0);
+        if (current() == '-') text.append(buffer[position++]);
+        int c = current();
+        if (c == '0') {
+            text.append(buffer[position++]);
+            if (isDigit(current())) throw syntaxError("Invalid number " + text + (char) current());
+        } else if (c >= '1' && c <= '9') {
+            readDigits();
+        } else {
+            throw syntaxError(text.length() == 0 ? "Unexpected character" : "Invalid number " + text);
+        }
+
+        boolean integral = true;
+        if (current() == '.') {
+            integral = false;
+            text.append(buffer[position++]);
+            if (readDigits() == 0) throw syntaxError("Invalid number " + text);
+        }
+        c = current();
+        if (c == 'e' || c == 'E') {
+            integral = false;
+            text.append(buffer[position++]);
+            c = current();
+            if (c == '+' || c == '-') text.append(buffer[position++]);
+            if (readDigits() == 0) throw syntaxError("Invalid number " + text);
+        }
+        if (!build) return null;
+
+        String number = text.toString();
+        if (integral) {
+            // Up to 18 characters always fit in a long; longer integers may still.
+            if (number.length() <= 18) {
+                long value = Long.parseLong(number);
+                return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE ? (Object) (int) value : (Object) value;
+            }
+            try {
+                return Long.parseLong(number);
+            } catch (NumberFormatException e) {
+                // Beyond 64 bits, fall through to a double.
+            }
+        }
+        return Double.parseDouble(number);
+    }
+
+    private int readDigits() throws IOException {
+        int count = 0;
+        while (isDigit(current())) {
+            text.append(buffer[position++]);
+            count++;
+        }
+        return count;
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private void expectLiteral(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (read() != literal.charAt(i)) throw syntaxError("Expected " + literal);
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        if (peek() != expected) throw syntaxError("Expected '" + expected + "'");
+        position++;
+    }
+
+    private void enter() throws IOException {
+        if (++depth > MAX_DEPTH) throw syntaxError("JSON nested deeper than " + MAX_DEPTH);
+    }
+
+    /**
+     * Skips whitespace and returns the next character without consuming it, or -1 at the end.
+     */
+    private int peek() throws IOException {
+        while (true) {
+            if (position == limit && !fill()) return -1;
+            char c = buffer[position];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return c;
+            position++;
+        }
+    }
+
+    /**
+     * Returns the next character without consuming it or skipping whitespace, or -1 at the end.
+     */
+    private int current() throws IOException {
+        if (position == limit && !fill()) return -1;
+        return buffer[position];
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) return -1;
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) return false;
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    private static SyntaxException syntaxError(String message) {
+        return new SyntaxException("Invalid JSON: " + message);
+    }
+
+    private static int parseIndex(String token) {
+        if (token.isEmpty() || token.length() > 9) return -1;
+        for (int i = 0; i < token.length(); i++) {
+            if (token.charAt(i) < '0' || token.charAt(i) > '9') return -1;
+        }
+        return Integer.parseInt(token);
+    }
+
+    /**
+     * A set of JSON pointers (RFC 6901), compiled into a tree of path tokens.
+     */
+    static final class Projection {
+
+        final String[] pointers;
+        final boolean single;
+        private final Node root = new Node();
+
+        private Projection(String[] pointers, boolean single) {
+            this.pointers = pointers;
+            this.single = single;
+            for (String pointer : pointers) {
+                if (!pointer.isEmpty() && pointer.charAt(0) != '/') {
+                    throw new IllegalArgumentException("JSON pointer must start with '/': " + pointer);
+                }
+
+                Node node = root;
+                int start = 1;
+                while (start <= pointer.length() && !pointer.isEmpty()) {
+                    int end = pointer.indexOf('/', start);
+                    if (end < 0) end = pointer.length();
+                    String token = pointer.substring(start, end).replace("~1", "/").replace("~0", "~");
+                    if (node.children == null) node.children = new HashMap<>();
+                    Node child = node.children.get(token);
+                    if (child == null) {
+                        child = new Node();
+                        node.children.put(token, child);
+                    }
+                    node = child;
+                    start = end + 1;
+                }
+                node.pointer = pointer;
+            }
+        }
+
+        /**
+         * Compiles a single pointer String, or an array of them, as passed in the json_pointer
+         * option. Returns null when there is nothing to project.
+         */
+        static Projection of(Object value) {
+            if (value instanceof String) return new Projection(new String[]{(String) value}, true);
+            if (!(value instanceof Object[])) return null;
+
+            Object[] values = (Object[]) value;
+            if (values.length == 0) return null;
+            String[] pointers = new String[values.length];
+            for (int i = 0; i < values.length; i++) pointers[i] = String.valueOf(values[i]);
+            return new Projection(pointers, false);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder key = new StringBuilder(single ? "" : "[");
+            for (String pointer : pointers) key.append(pointer).append(' ');
+            return key.toString();
+        }
+    }
+
+    /**
+     * The document is not valid JSON, as opposed to the reader failing.
+     */
+    static final class SyntaxException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        SyntaxException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class Node {
+        HashMap<String, Node> children;
+        String pointer;
+    }
+}
@@ -0,0 +1,186 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * A Firebase component that is created off the plugin's constructor, either on a background
+ * executor via {@link #start} or on the thread that first needs it. Fire-and-forget calls made
+ * before the component exists are queued with {@link #whenReady} and replayed in order once it
+ * has been created; calls that need a result block in {@link #get}.
+ */
+final class LazyComponent<T> {
+
+    interface Factory<T> {
+        T create() throws Exception;
+    }
+
+    interface Action<T> {
+        void run(T component);
+    }
+
+    private static final int NEW = 0;
+    private static final int CREATING = 1;
+    private static final int READY = 2;
+    private static final int FAILED = 3;
+
+    private final Factory<T> factory;
+
+    private int state = NEW;
+    private T instance;
+    private Throwable error;
+    private final List<Action<T>> pending = new ArrayList<>();
+
+    private long durationNanos;
+    private long waitNanos;
+    private int queuedCalls;
+    private int failedCalls;
+    private boolean background;
+
+    LazyComponent(Factory<T> factory) {
+        this.factory = factory;
+    }
+
+    void start(Executor executor) {
+        synchronized (this) {
+            if (state != NEW) return;
+            state = CREATING;
+            background = true;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                create();
+            }
+        });
+    }
+
+    /**
+     * Returns the component, creating it on this thread if nobody has started it yet. Returns
+     * null if creation failed, which every caller has to handle.
+     */
+    T get() {
+        boolean create = false;
+        synchronized (this) {
+            if (state == READY) return instance;
+            if (state == NEW) {
+                state = CREATING;
+                create = true;
+            }
+        }
+        if (create) create();
+
+        synchronized (this) {
+            long started = System.nanoTime();
+            boolean interrupted = false;
+            while (state == CREATING) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            waitNanos += System.nanoTime() - started;
+            if (interrupted) Thread.currentThread().interrupt();
+            return instance;
+        }
+    }
+
+    /**
+     * Returns the component if it has already been created, without creating it or waiting for it.
+     */
+    synchronized T getIfReady() {
+        return state == READY ? instance : null;
+    }
+
+    /**
+     * Runs the action now if the component is ready, otherwise queues it. Actions queued for a
+     * component that failed to initialize are dropped.
+     */
+    void whenReady(Action<T> action) {
+        T ready;
+        synchronized (this) {
+            if (state == FAILED) return;
+            if (state != READY) {
+                pending.add(action);
+                queuedCalls++;
+                return;
+            }
+            ready = instance;
+        }
+        action.run(ready);
+    }
+
+    synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("ready", state == READY);
+        stats.put("failed", state == FAILED);
+        stats.put("background", background);
+        stats.put("duration_ms", durationNanos / 1e6);
+        stats.put("wait_ms", waitNanos / 1e6);
+        stats.put("queued_calls", queuedCalls);
+        stats.put("failed_calls", failedCalls);
+        if (error != null) stats.put("error", String.valueOf(error.getMessage()));
+        return stats;
+    }
+
+    private void create() {
+        long started = System.nanoTime();
+        T created = null;
+        Throwable failure = null;
+        boolean published = false;
+        try {
+            created = factory.create();
+
+            // Replay queued calls before publishing the instance so they keep their order
+            // relative to calls made after the component became ready.
+            while (true) {
+                List<Action<T>> batch;
+                synchronized (this) {
+                    if (pending.isEmpty()) {
+                        finish(created, null, System.nanoTime() - started);
+                        published = true;
+                        return;
+                    }
+                    batch = new ArrayList<>(pending);
+                    pending.clear();
+                }
+                for (Action<T> action : batch) {
+                    try {
+                        action.run(created);
+                    } catch (Throwable e) {
+                        // One bad replayed call must not leave the component stuck initializing.
+                        synchronized (this) {
+                            failedCalls++;
+                        }
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            failure = e;
+        } finally {
+            // Whatever went wrong, waiters in get() must be released.
+            if (!published) {
+                synchronized (this) {
+                    finish(created, failure, System.nanoTime() - started);
+                }
+            }
+        }
+    }
+
+    private void finish(T created, Throwable failure, long duration) {
+        durationNanos = duration;
+        if (created != null) {
+            instance = created;
+            state = READY;
+        } else {
+            error = failure;
+            state = FAILED;
+            pending.clear();
+        }
+        notifyAll();
+    }
+}
@@ -0,0 +1,464 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Durable queue of requests that must reach the server even if the device is offline when they
+ * are made. Requests are appended to a write-ahead log of segment files and replayed one at a
+ * time, in order, whenever connectivity returns. A delivered request is acknowledged with an ACK
+ * record; segments are deleted oldest first once everything in them has been acknowledged, and
+ * the remaining requests are compacted into fresh segments when several segments pile up and
+ * less than half of the log is still live. Each compaction frees at least as many bytes as it
+ * copies, so a long backlog is not rewritten over and over as it drains.
+ *
+ * <p>Each record is framed as {@code [int length][int crc32][byte type][payload]}. A truncated
+ * or corrupt record ends the segment it is in, which is what a torn write at crash time looks
+ * like.
+ */
+final class OfflineRequestQueue {
+
+    interface Sender {
+        void send(Record record, Result result);
+    }
+
+    interface Result {
+        void onResult(int code, String body);
+    }
+
+    interface Listener {
+        void onDelivered(Record record, int code, String body);
+    }
+
+    static final class Record {
+        final long sequence;
+        final String key;
+        final String method;
+        final String url;
+        final String[] headers;
+        final String body;
+        final boolean auth;
+        int segment;
+        // Framed size on disk.
+        int size;
+
+        Record(long sequence, String key, String method, String url, String[] headers, String body, boolean auth) {
+            this.sequence = sequence;
+            this.key = key;
+            this.method = method;
+            this.url = url;
+            this.headers = headers;
+            this.body = body;
+            this.auth = auth;
+        }
+    }
+
+    private static final byte TYPE_APPEND = 1;
+    private static final byte TYPE_ACK = 2;
+
+    private static final long MAX_SEGMENT_BYTES = 512 * 1024;
+    private static final int MAX_CLOSED_SEGMENTS = 4;
+    // Compact once live records take up less than this share of the log.
+    private static final double MIN_LIVE_RATIO = 0.5;
+    private static final int SYNC_BATCH = 8;
+    private static final long SYNC_DELAY_MILLIS = 200L;
+    private static final long REPLAY_RETRY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final File directory;
+    private final ScheduledExecutorService timer;
+    private final Sender sender;
+    private final Listener listener;
+
+    private final LinkedHashMap<Long, Record> pending = new LinkedHashMap<>();
+    private final TreeMap<Integer, Integer> liveBySegment = new TreeMap<>();
+    private int activeSegment;
+    private FileOutputStream activeFile;
+    private DataOutputStream activeOut;
+    private long activeBytes;
+    private long nextSequence = 1;
+    private long liveBytes;
+    private int unsynced;
+    private ScheduledFuture<?> syncTask;
+    private ScheduledFuture<?> replayTask;
+    private boolean replaying;
+
+    private long appended;
+    private long delivered;
+    private long failedAttempts;
+    private long lastReplayCount;
+    private long lastReplayNanos;
+    private long replayStartNanos;
+    private long replayCount;
+    private String lastError = "";
+
+    OfflineRequestQueue(File directory, ScheduledExecutorService timer, Sender sender, Listener listener) throws IOException {
+        this.directory = directory;
+        this.timer = timer;
+        this.sender = sender;
+        this.listener = listener;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        load();
+    }
+
+    synchronized Record append(String key, String method, String url, String[] headers, String body, boolean auth) throws IOException {
+        Record record = new Record(nextSequence++, key, method, url, headers, body, auth);
+        writeAppend(record);
+        pending.put(record.sequence, record);
+        liveBytes += record.size;
+        appended++;
+        requestSync();
+        return record;
+    }
+
+    void replay() {
+        Record next;
+        synchronized (this) {
+            if (replaying || pending.isEmpty()) return;
+            replaying = true;
+            replayStartNanos = System.nanoTime();
+            replayCount = 0;
+            next = pending.values().iterator().next();
+        }
+        send(next);
+    }
+
+    synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("depth", pending.size());
+        stats.put("segments", liveBySegment.size());
+        stats.put("bytes", (int) diskBytes());
+        stats.put("appended", (int) appended);
+        stats.put("delivered", (int) delivered);
+        stats.put("failed_attempts", (int) failedAttempts);
+        stats.put("replaying", replaying);
+        double seconds = lastReplayNanos / 1e9;
+        stats.put("last_replay_count", (int) lastReplayCount);
+        stats.put("last_replay_per_second", seconds > 0 ? lastReplayCount / seconds : 0.0);
+        stats.put("last_error", lastError);
+        return stats;
+    }
+
+    private void send(final Record record) {
+        sender.send(record, new Result() {
+            @Override
+            public void onResult(int code, String body) {
+                if (isDelivered(code)) {
+                    acknowledge(record);
+                    listener.onDelivered(record, code, body);
+                    Record next;
+                    synchronized (OfflineRequestQueue.this) {
+                        replayCount++;
+                        next = pending.isEmpty() ? null : pending.values().iterator().next();
+                        if (next == null) finishReplay();
+                    }
+                    if (next != null) send(next);
+                } else {
+                    synchronized (OfflineRequestQueue.this) {
+                        failedAttempts++;
+                        lastError = code == 0 ? body : "HTTP " + code;
+                        finishReplay();
+                        scheduleReplay();
+                    }
+                }
+            }
+        });
+    }
+
+    private static boolean isDelivered(int code) {
+        // Anything but a transport error or a status worth retrying is final, including client
+        // errors: replaying a request the server rejected would only block the queue.
+        return code != 0 && code < 500 && code != 408 && code != 429;
+    }
+
+    private void finishReplay() {
+        replaying = false;
+        lastReplayCount = replayCount;
+        lastReplayNanos = System.nanoTime() - replayStartNanos;
+    }
+
+    private void scheduleReplay() {
+        if (replayTask != null && !replayTask.isDone()) return;
+        replayTask = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                replay();
+            }
+        }, REPLAY_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void acknowledge(Record record) {
+        if (pending.remove(record.sequence) == null) return;
+        liveBytes -= record.size;
+        delivered++;
+        try {
+            writeRecord(TYPE_ACK, encodeAck(record.sequence));
+            requestSync();
+            release(record.segment);
+            maybeRoll();
+            maybeCompact();
+        } catch (IOException e) {
+            lastError = e.getMessage();
+        }
+    }
+
+    private void release(int segment) {
+        Integer live = liveBySegment.get(segment);
+        if (live != null) liveBySegment.put(segment, live - 1);
+
+        // Segments are only ever deleted oldest first: ACKs live in the same or later segments
+        // than the records they acknowledge, so this never resurrects an acknowledged record.
+        while (!liveBySegment.isEmpty()) {
+            Map.Entry<Integer, Integer> oldest = liveBySegment.firstEntry();
+            if (oldest.getKey() == activeSegment || oldest.getValue() > 0) break;
+            liveBySegment.remove(oldest.getKey());
+            segmentFile(oldest.getKey()).delete();
+        }
+    }
+
+    private void maybeRoll() throws IOException {
+        if (activeBytes >= MAX_SEGMENT_BYTES) openSegment(activeSegment + 1);
+    }
+
+    private void maybeCompact() throws IOException {
+        if (liveBySegment.size() - 1 < MAX_CLOSED_SEGMENTS) return;
+        // Right after a compaction nearly everything on disk is live, so this also keeps a large
+        // backlog from being compacted again on the next acknowledgement.
+        if (liveBytes >= diskBytes() * MIN_LIVE_RATIO) return;
+
+        // Old segments are only deleted once the rewritten records are on disk.
+        List<Integer> old = new ArrayList<>(liveBySegment.keySet());
+        openSegment(activeSegment + 1);
+        for (Record record : pending.values()) writeAppend(record);
+        sync();
+        for (Integer segment : old) {
+            liveBySegment.remove(segment);
+            segmentFile(segment).delete();
+        }
+    }
+
+    /**
+     * Whether the directory holds records from an earlier run, so the queue has to be opened to
+     * replay them. The empty segment a drained queue leaves behind does not count.
+     */
+    static boolean hasSegments(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) return false;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith("wal-") && name.endsWith(".log") && file.length() > 0) return true;
+        }
+        return false;
+    }
+
+    private void load() throws IOException {
+        File[] files = directory.listFiles();
+        int[] segments = new int[files != null ? files.length : 0];
+        int count = 0;
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith("wal-") && name.endsWith(".log")) {
+                    try {
+                        segments[count++] = Integer.parseInt(name.substring(4, name.length() - 4));
+                    } catch (NumberFormatException ignored) {
+                        // Not one of ours.
+                    }
+                }
+            }
+        }
+        segments = Arrays.copyOf(segments, count);
+        Arrays.sort(segments);
+
+        for (int segment : segments) {
+            liveBySegment.put(segment, 0);
+            readSegment(segment);
+        }
+        for (Record record : pending.values()) {
+            liveBySegment.put(record.segment, liveBySegment.get(record.segment) + 1);
+            liveBytes += record.size;
+        }
+
+        openSegment(segments.length > 0 ? segments[segments.length - 1] + 1 : 0);
+        while (!liveBySegment.isEmpty() && liveBySegment.firstKey() != activeSegment
+                && liveBySegment.firstEntry().getValue() == 0) {
+            segmentFile(liveBySegment.pollFirstEntry().getKey()).delete();
+        }
+    }
+
+    private void readSegment(int segment) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segmentFile(segment))));
+        try {
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                int checksum;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < 1 || length > 64 * 1024 * 1024) return;
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    return;
+                }
+
+                crc.reset();
+                crc.update(payload, 0, payload.length);
+                if ((int) crc.getValue() != checksum) return;
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload, 1, payload.length - 1));
+                if (payload[0] == TYPE_APPEND) {
+                    Record appendRecord = decodeAppend(record);
+                    appendRecord.segment = segment;
+                    appendRecord.size = 8 + length;
+                    pending.put(appendRecord.sequence, appendRecord);
+                    nextSequence = Math.max(nextSequence, appendRecord.sequence + 1);
+                } else if (payload[0] == TYPE_ACK) {
+                    pending.remove(record.readLong());
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void openSegment(int segment) throws IOException {
+        if (activeOut != null) {
+            sync();
+            activeOut.close();
+        }
+        activeSegment = segment;
+        activeFile = new FileOutputStream(segmentFile(segment), true);
+        activeOut = new DataOutputStream(activeFile);
+        activeBytes = segmentFile(segment).length();
+        if (!liveBySegment.containsKey(segment)) liveBySegment.put(segment, 0);
+    }
+
+    private void writeAppend(Record record) throws IOException {
+        byte[] payload = encodeAppend(record);
+        writeRecord(TYPE_APPEND, payload);
+        record.segment = activeSegment;
+        record.size = 9 + payload.length;
+        liveBySegment.put(activeSegment, liveBySegment.get(activeSegment) + 1);
+        maybeRoll();
+    }
+
+    private void writeRecord(byte type, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload, 0, payload.length);
+        activeOut.writeInt(payload.length + 1);
+        activeOut.writeInt((int) crc.getValue());
+        activeOut.writeByte(type);
+        activeOut.write(payload);
+        activeBytes += 9 + payload.length;
+        unsynced++;
+    }
+
+    private void requestSync() throws IOException {
+        if (unsynced >= SYNC_BATCH) {
+            sync();
+        } else if (syncTask == null || syncTask.isDone()) {
+            syncTask = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (OfflineRequestQueue.this) {
+                        try {
+                            sync();
+                        } catch (IOException e) {
+                            lastError = e.getMessage();
+                        }
+                    }
+                }
+            }, SYNC_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void sync() throws IOException {
+        if (unsynced == 0) return;
+        activeOut.flush();
+        activeFile.getFD().sync();
+        unsynced = 0;
+    }
+
+    private long diskBytes() {
+        long bytes = 0;
+        for (Integer segment : liveBySegment.keySet()) bytes += segmentFile(segment).length();
+        return bytes;
+    }
+
+    private File segmentFile(int segment) {
+        return new File(directory, String.format(Locale.ROOT, "wal-%08d.log", segment));
+    }
+
+    private static byte[] encodeAppend(Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(record.sequence);
+        writeString(out, record.key);
+        writeString(out, record.method);
+        writeString(out, record.url);
+        out.writeInt(record.headers.length);
+        for (String header : record.headers) writeString(out, header);
+        out.writeBoolean(record.body != null);
+        if (record.body != null) writeString(out, record.body);
+        out.writeBoolean(record.auth);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Record decodeAppend(DataInputStream in) throws IOException {
+        long sequence = in.readLong();
+        String key = readString(in);
+        String method = readString(in);
+        String url = readString(in);
+        String[] headers = new String[in.readInt()];
+        for (int i = 0; i < headers.length; i++) headers[i] = readString(in);
+        String body = in.readBoolean() ? readString(in) : null;
+        boolean auth = in.readBoolean();
+        return new Record(sequence, key, method, url, headers, body, auth);
+    }
+
+    private static byte[] encodeAck(long sequence) {
+        byte[] payload = new byte[8];
+        for (int i = 0; i < 8; i++) payload[i] = (byte) (sequence >>> (56 - 8 * i));
+        return payload;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
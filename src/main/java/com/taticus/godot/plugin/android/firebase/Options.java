@@ -0,0 +1,27 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.Map;
+
+/**
+ * Typed lookups in option Dictionaries passed from GDScript. A null Dictionary counts as empty.
+ */
+final class Options {
+
+    private Options() {
+    }
+
+    static int getInt(Map<String, Object> options, String key, int defaultValue) {
+        Object value = options != null ? options.get(key) : null;
+        return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+    }
+
+    static boolean getBoolean(Map<String, Object> options, String key, boolean defaultValue) {
+        Object value = options != null ? options.get(key) : null;
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+
+    static String getString(Map<String, Object> options, String key, String defaultValue) {
+        Object value = options != null ? options.get(key) : null;
+        return value != null ? value.toString() : defaultValue;
+    }
+}
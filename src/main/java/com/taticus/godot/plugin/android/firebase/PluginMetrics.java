@@ -0,0 +1,98 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the plugin's own counters, latency histograms and gauges. Metrics are created on
+ * first use and looked up by name afterwards, so recording never allocates once a name has been
+ * seen.
+ */
+final class PluginMetrics {
+
+    interface Gauge {
+        long value();
+    }
+
+    private final ConcurrentHashMap<String, StripedCounter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, StripedCounter> calls = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final StripedCounter frames = new StripedCounter();
+
+    StripedCounter counter(String name) {
+        return lookup(counters, name);
+    }
+
+    LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) histogram = created;
+        }
+        return histogram;
+    }
+
+    void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Counts one call of a plugin method from GDScript.
+     */
+    void call(String method) {
+        lookup(calls, method).increment();
+    }
+
+    void frame() {
+        frames.increment();
+    }
+
+    Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new HashMap<>();
+
+        Map<String, Object> counterValues = new HashMap<>();
+        for (Map.Entry<String, StripedCounter> entry : counters.entrySet()) {
+            counterValues.put(entry.getKey(), (int) entry.getValue().sum());
+        }
+        snapshot.put("counters", counterValues);
+
+        long totalCalls = 0;
+        Map<String, Object> callValues = new HashMap<>();
+        for (Map.Entry<String, StripedCounter> entry : calls.entrySet()) {
+            long value = entry.getValue().sum();
+            totalCalls += value;
+            callValues.put(entry.getKey(), (int) value);
+        }
+        snapshot.put("calls", callValues);
+
+        Map<String, Object> histogramValues = new HashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            histogramValues.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        snapshot.put("histograms", histogramValues);
+
+        Map<String, Object> gaugeValues = new HashMap<>();
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            gaugeValues.put(entry.getKey(), (int) entry.getValue().value());
+        }
+        snapshot.put("gauges", gaugeValues);
+
+        long frameCount = frames.sum();
+        snapshot.put("frames", (int) frameCount);
+        snapshot.put("calls_per_frame", frameCount > 0 ? (double) totalCalls / frameCount : 0.0);
+        return snapshot;
+    }
+
+    private static StripedCounter lookup(ConcurrentHashMap<String, StripedCounter> map, String name) {
+        StripedCounter counter = map.get(name);
+        if (counter == null) {
+            StripedCounter created = new StripedCounter();
+            counter = map.putIfAbsent(name, created);
+            if (counter == null) counter = created;
+        }
+        return counter;
+    }
+}
@@ -0,0 +1,61 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TreeSet;
+
+import okhttp3.Request;
+
+/**
+ * Tracks in-flight exchanges by key so identical calls made while one is already on the wire
+ * wait for its result instead of opening another exchange.
+ */
+final class RequestCoalescer {
+
+    private final HashMap<String, HttpExchange> inFlight = new HashMap<>();
+    private volatile TreeSet<String> keyHeaders = new TreeSet<>();
+
+    void setKeyHeaders(Collection<String> names) {
+        TreeSet<String> headers = new TreeSet<>();
+        for (String name : names) headers.add(name.toLowerCase(Locale.ROOT));
+        keyHeaders = headers;
+    }
+
+    String key(Request request, boolean authenticated, int responseFormat, JsonParser.Projection projection) {
+        StringBuilder key = new StringBuilder(request.method()).append(' ').append(request.url());
+        if (authenticated) key.append("\nauth");
+        // no_cache and max_stale callers accept different answers from the cache.
+        String cacheControl = request.header("Cache-Control");
+        if (cacheControl != null) key.append("\ncache-control: ").append(cacheControl);
+        // Waiters share one HttpResult, so they must all want the body in the same form.
+        if (responseFormat != HttpResult.FORMAT_TEXT) key.append("\nformat ").append(responseFormat);
+        if (projection != null) key.append("\nproject ").append(projection);
+        for (String name : keyHeaders) {
+            if (name.equals("cache-control")) continue;
+            String value = request.header(name);
+            if (value != null) key.append('\n').append(name).append(": ").append(value);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Attaches the request handle to the exchange already in flight for the key, or registers
+     * the candidate as that exchange. Returns the exchange the handle was attached to; only
+     * when that is the candidate does the caller have to submit it.
+     */
+    synchronized HttpExchange join(String key, HttpExchange candidate, int id, HttpResponseListener listener) {
+        HttpExchange existing = inFlight.get(key);
+        if (existing != null && existing.addWaiter(id, listener)) {
+            return existing;
+        }
+
+        candidate.addWaiter(id, listener);
+        inFlight.put(key, candidate);
+        return candidate;
+    }
+
+    synchronized void remove(String key, HttpExchange exchange) {
+        if (inFlight.get(key) == exchange) inFlight.remove(key);
+    }
+}
@@ -0,0 +1,109 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Request;
+
+/**
+ * Decides whether a failed exchange is retried and how long to wait before doing so. Delays use
+ * exponential backoff with full jitter, unless the server asked for a specific delay through
+ * Retry-After.
+ */
+final class RetryPolicy {
+
+    private static final long MAX_RETRY_AFTER_MILLIS = 60000L;
+
+    private final Random random = new Random();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+    private final AtomicLong shortCircuited = new AtomicLong();
+
+    private volatile int maxRetries = 2;
+    private volatile long baseDelayMillis = 250L;
+    private volatile long maxDelayMillis = 10000L;
+
+    void configure(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.baseDelayMillis = Math.max(1L, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+    }
+
+    int maxRetries() {
+        return maxRetries;
+    }
+
+    static boolean isRetryable(Request request) {
+        switch (request.method()) {
+            case "GET":
+            case "HEAD":
+            case "PUT":
+            case "DELETE":
+            case "OPTIONS":
+            case "TRACE":
+                return true;
+            default:
+                return request.header("Idempotency-Key") != null;
+        }
+    }
+
+    static boolean isRetryableStatus(int code) {
+        return code == 408 || code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+    }
+
+    long delayMillis(int attempt, String retryAfter) {
+        long serverDelay = parseRetryAfter(retryAfter, System.currentTimeMillis());
+        if (serverDelay >= 0) return Math.min(serverDelay, MAX_RETRY_AFTER_MILLIS);
+
+        long ceiling = baseDelayMillis << Math.min(attempt, 20);
+        if (ceiling <= 0 || ceiling > maxDelayMillis) ceiling = maxDelayMillis;
+        synchronized (random) {
+            return (long) (random.nextDouble() * ceiling);
+        }
+    }
+
+    static long parseRetryAfter(String value, long now) {
+        if (value == null || value.isEmpty()) return -1L;
+        try {
+            return Math.max(0L, Long.parseLong(value.trim()) * 1000L);
+        } catch (NumberFormatException ignored) {
+            // Not delta-seconds, try an HTTP-date.
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(value.trim());
+            return Math.max(0L, date.getTime() - now);
+        } catch (ParseException e) {
+            return -1L;
+        }
+    }
+
+    void onRetry() {
+        retries.incrementAndGet();
+    }
+
+    void onExhausted() {
+        exhausted.incrementAndGet();
+    }
+
+    void onShortCircuit() {
+        shortCircuited.incrementAndGet();
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("retries", (int) retries.get());
+        stats.put("exhausted", (int) exhausted.get());
+        stats.put("short_circuited", (int) shortCircuited.get());
+        return stats;
+    }
+}
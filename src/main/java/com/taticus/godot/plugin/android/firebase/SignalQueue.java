@@ -0,0 +1,76 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free multi-producer, single-consumer queue of pending signals. Any thread may post;
+ * only the engine thread drains, once per frame, within a signal count and time budget so a
+ * burst of completions is spread over several frames instead of stalling one.
+ */
+final class SignalQueue {
+
+    interface Emitter {
+        void emit(String signal, Object[] args);
+    }
+
+    private static final class Node {
+        String signal;
+        Object[] args;
+        volatile Node next;
+
+        Node(String signal, Object[] args) {
+            this.signal = signal;
+            this.args = args;
+        }
+    }
+
+    private final AtomicReference<Node> tail;
+    private final AtomicInteger size = new AtomicInteger();
+    private Node head;
+
+    SignalQueue() {
+        Node stub = new Node(null, null);
+        head = stub;
+        tail = new AtomicReference<>(stub);
+    }
+
+    void post(String signal, Object... args) {
+        Node node = new Node(signal, args);
+        Node previous = tail.getAndSet(node);
+        previous.next = node;
+        size.incrementAndGet();
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Emits queued signals in posting order until the queue is empty, maxSignals have been
+     * emitted or budgetNanos have elapsed. At least one signal is emitted if any is queued.
+     * Must only be called from a single thread.
+     */
+    int drain(Emitter emitter, int maxSignals, long budgetNanos) {
+        long deadline = System.nanoTime() + budgetNanos;
+        int drained = 0;
+        while (drained < maxSignals) {
+            // A null next either means the queue is empty or a producer is between swapping the
+            // tail and linking its node; in both cases the signal is picked up next frame.
+            Node next = head.next;
+            if (next == null) break;
+
+            String signal = next.signal;
+            Object[] args = next.args;
+            next.signal = null;
+            next.args = null;
+            head = next;
+            size.decrementAndGet();
+
+            emitter.emit(signal, args);
+            drained++;
+            if (System.nanoTime() >= deadline) break;
+        }
+        return drained;
+    }
+}
@@ -0,0 +1,31 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that spreads contended increments over several padded cells, picked by thread id, and
+ * sums them on read. LongAdder does the same but needs API 24.
+ */
+final class StripedCounter {
+
+    private static final int STRIPES = 8;
+    // 16 longs = 128 bytes between cells, enough to keep them on separate cache lines.
+    private static final int PADDING = 16;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    void increment() {
+        add(1L);
+    }
+
+    void add(long delta) {
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+        cells.addAndGet(stripe * PADDING, delta);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) sum += cells.get(i * PADDING);
+        return sum;
+    }
+}
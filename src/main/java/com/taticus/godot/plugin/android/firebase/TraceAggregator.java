@@ -0,0 +1,234 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Folds many short traces into one summary per name and attribute set (count, duration sum, min,
+ * max, duration buckets and summed custom metrics), which {@link #flush} hands to a {@link Sink}
+ * to be reported as a single trace. Also holds the per-name rules that decide whether a trace is
+ * sampled, aggregated or sent as is.
+ */
+final class TraceAggregator {
+
+    interface Sink {
+        void emit(String name, Map<String, String> attributes, Map<String, Long> metrics);
+    }
+
+    static final class Rule {
+        static final Rule DEFAULT = new Rule(1.0, false);
+
+        final double sampleRate;
+        final boolean aggregate;
+
+        Rule(double sampleRate, boolean aggregate) {
+            this.sampleRate = Math.max(0.0, Math.min(1.0, sampleRate));
+            this.aggregate = aggregate;
+        }
+
+        /**
+         * A null Dictionary gives the default rule.
+         */
+        static Rule parse(Map<String, Object> options) {
+            Object rate = options != null ? options.get("sample_rate") : null;
+            return new Rule(rate instanceof Number ? ((Number) rate).doubleValue() : 1.0,
+                    Options.getBoolean(options, "aggregate", false));
+        }
+    }
+
+    /**
+     * Stands in for a Trace or HttpMetric whose name is aggregated. Never reaches Firebase itself.
+     */
+    static final class Span {
+        final String name;
+        final Map<String, String> attributes = new HashMap<>();
+        final Map<String, Long> metrics = new HashMap<>();
+        private long startNanos = -1L;
+
+        Span(String name) {
+            this.name = name;
+        }
+
+        synchronized void start(long now) {
+            if (startNanos < 0L) startNanos = now;
+        }
+
+        synchronized void incrementMetric(String metric, long value) {
+            Long current = metrics.get(metric);
+            metrics.put(metric, current != null ? current + value : value);
+        }
+
+        synchronized void putMetric(String metric, long value) {
+            metrics.put(metric, value);
+        }
+
+        synchronized long getLongMetric(String metric) {
+            Long value = metrics.get(metric);
+            return value != null ? value : 0L;
+        }
+
+        synchronized void putAttribute(String attribute, String value) {
+            attributes.put(attribute, value);
+        }
+
+        synchronized String getAttribute(String attribute) {
+            return attributes.get(attribute);
+        }
+
+        synchronized void removeAttribute(String attribute) {
+            attributes.remove(attribute);
+        }
+
+        /**
+         * Records an HTTP status as its class ("2xx", "4xx", ...), which keeps the number of
+         * attribute sets small.
+         */
+        synchronized void setResponseCode(int code) {
+            attributes.put("status", code > 0 ? code / 100 + "xx" : "error");
+        }
+    }
+
+    // Upper bounds of the duration buckets in milliseconds; slower traces go to a last bucket.
+    private static final long[] BUCKET_MILLIS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+    private static final String[] BUCKET_NAMES = bucketNames();
+    // Firebase Performance keeps at most 32 metrics per trace.
+    private static final int MAX_METRICS = 32;
+    private static final int MAX_SUMMARIES = 500;
+
+    private final ConcurrentHashMap<String, Rule> rules = new ConcurrentHashMap<>();
+    private HashMap<String, Summary> summaries = new HashMap<>();
+    private long dropped;
+
+    void setRule(String name, Rule rule) {
+        rules.put(name, rule);
+    }
+
+    void clearRules() {
+        rules.clear();
+    }
+
+    /**
+     * The rule for a name, falling back to the rule registered as "*".
+     */
+    Rule rule(String name) {
+        Rule rule = rules.get(name);
+        if (rule == null) rule = rules.get("*");
+        return rule != null ? rule : Rule.DEFAULT;
+    }
+
+    /**
+     * Adds a stopped span to its summary. Spans that were never started are ignored.
+     */
+    void record(Span span, long stopNanos) {
+        String key;
+        TreeMap<String, String> attributes;
+        Map<String, Long> metrics;
+        long durationMicros;
+        synchronized (span) {
+            if (span.startNanos < 0L) return;
+            durationMicros = TimeUnit.NANOSECONDS.toMicros(Math.max(0L, stopNanos - span.startNanos));
+            attributes = new TreeMap<>(span.attributes);
+            metrics = new HashMap<>(span.metrics);
+        }
+
+        StringBuilder builder = new StringBuilder(span.name);
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            builder.append('\n').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        key = builder.toString();
+
+        synchronized (this) {
+            Summary summary = summaries.get(key);
+            if (summary == null) {
+                if (summaries.size() >= MAX_SUMMARIES) {
+                    dropped++;
+                    return;
+                }
+                summary = new Summary(span.name, attributes);
+                summaries.put(key, summary);
+            }
+            summary.add(durationMicros, metrics);
+        }
+    }
+
+    /**
+     * Reports every summary gathered since the last flush and starts over.
+     */
+    void flush(Sink sink) {
+        HashMap<String, Summary> ready;
+        synchronized (this) {
+            if (summaries.isEmpty()) return;
+            ready = summaries;
+            summaries = new HashMap<>();
+        }
+        for (Summary summary : ready.values()) {
+            sink.emit(summary.name, summary.attributes, summary.metrics());
+        }
+    }
+
+    synchronized int pendingCount() {
+        return summaries.size();
+    }
+
+    synchronized long droppedCount() {
+        return dropped;
+    }
+
+    private static String[] bucketNames() {
+        String[] names = new String[BUCKET_MILLIS.length + 1];
+        for (int i = 0; i < BUCKET_MILLIS.length; i++) names[i] = "le_" + BUCKET_MILLIS[i] + "ms";
+        names[BUCKET_MILLIS.length] = "gt_" + BUCKET_MILLIS[BUCKET_MILLIS.length - 1] + "ms";
+        return names;
+    }
+
+    private static final class Summary {
+        final String name;
+        final Map<String, String> attributes;
+        final long[] buckets = new long[BUCKET_MILLIS.length + 1];
+        final TreeMap<String, Long> sums = new TreeMap<>();
+        long count;
+        long sumMicros;
+        long minMicros = Long.MAX_VALUE;
+        long maxMicros;
+
+        Summary(String name, Map<String, String> attributes) {
+            this.name = name;
+            this.attributes = attributes;
+        }
+
+        void add(long durationMicros, Map<String, Long> metrics) {
+            count++;
+            sumMicros += durationMicros;
+            minMicros = Math.min(minMicros, durationMicros);
+            maxMicros = Math.max(maxMicros, durationMicros);
+
+            int bucket = 0;
+            while (bucket < BUCKET_MILLIS.length && durationMicros > BUCKET_MILLIS[bucket] * 1000L) bucket++;
+            buckets[bucket]++;
+
+            for (Map.Entry<String, Long> entry : metrics.entrySet()) {
+                Long current = sums.get(entry.getKey());
+                sums.put(entry.getKey(), current != null ? current + entry.getValue() : entry.getValue());
+            }
+        }
+
+        Map<String, Long> metrics() {
+            Map<String, Long> metrics = new HashMap<>();
+            metrics.put("count", count);
+            metrics.put("duration_sum_us", sumMicros);
+            metrics.put("duration_min_us", minMicros);
+            metrics.put("duration_max_us", maxMicros);
+            for (int i = 0; i < buckets.length; i++) {
+                if (buckets[i] > 0) metrics.put(BUCKET_NAMES[i], buckets[i]);
+            }
+            for (Map.Entry<String, Long> entry : sums.entrySet()) {
+                if (metrics.size() >= MAX_METRICS) break;
+                metrics.put("sum_" + entry.getKey(), entry.getValue());
+            }
+            return metrics;
+        }
+    }
+}
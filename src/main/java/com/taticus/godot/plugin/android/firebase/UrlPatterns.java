@@ -0,0 +1,97 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collapses request URLs into patterns so that metrics for "/users/123/scores" and
+ * "/users/456/scores" end up in the same bucket. Registered patterns use "*" for a single path
+ * segment and are tried first; otherwise numeric, UUID, long hex and token-like segments are
+ * replaced with ":id". The query string and fragment are always dropped.
+ */
+final class UrlPatterns {
+
+    private volatile List<String[]> patterns = new ArrayList<>();
+
+    void setPatterns(String[] values) {
+        List<String[]> parsed = new ArrayList<>(values.length);
+        for (String value : values) parsed.add(split(value));
+        patterns = parsed;
+    }
+
+    String normalize(String scheme, String host, String path) {
+        String[] segments = split(path);
+        for (String[] pattern : patterns) {
+            if (matches(pattern, segments)) return scheme + "://" + host + join(pattern);
+        }
+
+        StringBuilder normalized = new StringBuilder(scheme.length() + host.length() + path.length() + 3);
+        normalized.append(scheme).append("://").append(host);
+        for (String segment : segments) {
+            normalized.append('/').append(isIdentifier(segment) ? ":id" : segment);
+        }
+        if (segments.length == 0) normalized.append('/');
+        return normalized.toString();
+    }
+
+    private static boolean matches(String[] pattern, String[] segments) {
+        if (pattern.length != segments.length) return false;
+        for (int i = 0; i < pattern.length; i++) {
+            if (!pattern[i].equals("*") && !pattern[i].equals(segments[i])) return false;
+        }
+        return true;
+    }
+
+    private static boolean isIdentifier(String segment) {
+        int length = segment.length();
+        if (length == 0) return false;
+
+        int digits = 0;
+        int hex = 0;
+        int letters = 0;
+        for (int i = 0; i < length; i++) {
+            char c = segment.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+                hex++;
+            } else if ((c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F')) {
+                hex++;
+                letters++;
+            } else if ((c >= 'g' && c <= 'z') || (c >= 'G' && c <= 'Z')) {
+                letters++;
+            } else if (c != '-' && c != '_') {
+                return false;
+            }
+        }
+
+        if (digits == length) return true;
+        if (length == 36 && hex == 32) return true;
+        if (hex == length && length >= 16) return true;
+        // Long mixed tokens (Firebase push ids, base64 ids) rather than words.
+        return length >= 20 && digits > 0 && letters > 0;
+    }
+
+    private static String[] split(String path) {
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        int end = path.length();
+        int query = path.indexOf('?');
+        if (query >= 0) end = query;
+        int fragment = path.indexOf('#');
+        if (fragment >= 0 && fragment < end) end = fragment;
+        for (int i = 0; i <= end; i++) {
+            if (i == end || path.charAt(i) == '/') {
+                if (i > start) segments.add(path.substring(start, i));
+                start = i + 1;
+            }
+        }
+        return segments.toArray(new String[0]);
+    }
+
+    private static String join(String[] segments) {
+        if (segments.length == 0) return "/";
+        StringBuilder joined = new StringBuilder();
+        for (String segment : segments) joined.append('/').append(segment);
+        return joined.toString();
+    }
+}
@@ -0,0 +1,109 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakersTest {
+
+    private static final String HOST = "api.example.com";
+
+    private CircuitBreakers breakers;
+
+    @Before
+    public void setUp() {
+        breakers = new CircuitBreakers();
+        breakers.configure(3, 1000L);
+    }
+
+    private void fail(int times, long now) {
+        for (int i = 0; i < times; i++) breakers.onFailure(HOST, now);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> state() {
+        return (Map<String, Object>) breakers.states().get(HOST);
+    }
+
+    @Test
+    public void unknownHostsAreAllowed() {
+        assertTrue(breakers.allow(HOST, 0L));
+        assertTrue(breakers.states().isEmpty());
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        fail(2, 0L);
+        assertTrue(breakers.allow(HOST, 0L));
+        assertEquals(CircuitBreakers.CLOSED, state().get("state"));
+
+        fail(1, 0L);
+        assertEquals(CircuitBreakers.OPEN, state().get("state"));
+        assertEquals(1, state().get("times_opened"));
+        assertFalse(breakers.allow(HOST, 999L));
+    }
+
+    @Test
+    public void successResetsTheFailureRun() {
+        fail(2, 0L);
+        breakers.onSuccess(HOST);
+        fail(2, 0L);
+        assertTrue(breakers.allow(HOST, 0L));
+        assertEquals(2, state().get("consecutive_failures"));
+    }
+
+    @Test
+    public void otherHostsAreUnaffected() {
+        fail(3, 0L);
+        assertFalse(breakers.allow(HOST, 0L));
+        assertTrue(breakers.allow("cdn.example.com", 0L));
+    }
+
+    @Test
+    public void letsOneProbeThroughAfterTheOpenPeriod() {
+        fail(3, 0L);
+        assertTrue(breakers.allow(HOST, 1000L));
+        assertEquals(CircuitBreakers.HALF_OPEN, state().get("state"));
+        assertFalse(breakers.allow(HOST, 1001L));
+    }
+
+    @Test
+    public void successfulProbeClosesTheBreaker() {
+        fail(3, 0L);
+        assertTrue(breakers.allow(HOST, 1000L));
+        breakers.onSuccess(HOST);
+        assertEquals(CircuitBreakers.CLOSED, state().get("state"));
+        assertTrue(breakers.allow(HOST, 1001L));
+        assertTrue(breakers.allow(HOST, 1002L));
+    }
+
+    @Test
+    public void failedProbeReopensTheBreaker() {
+        fail(3, 0L);
+        assertTrue(breakers.allow(HOST, 1000L));
+        breakers.onFailure(HOST, 1000L);
+        assertEquals(CircuitBreakers.OPEN, state().get("state"));
+        assertEquals(2, state().get("times_opened"));
+        assertFalse(breakers.allow(HOST, 1999L));
+        assertTrue(breakers.allow(HOST, 2000L));
+    }
+
+    @Test
+    public void probeThatNeverReportsExpires() {
+        fail(3, 0L);
+        assertTrue(breakers.allow(HOST, 1000L));
+        assertFalse(breakers.allow(HOST, 1999L));
+        assertTrue(breakers.allow(HOST, 2000L));
+    }
+
+    @Test
+    public void failuresWhileOpenDoNotCountAsNewOpenings() {
+        fail(5, 0L);
+        assertEquals(1, state().get("times_opened"));
+    }
+}
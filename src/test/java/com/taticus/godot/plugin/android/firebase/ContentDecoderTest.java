@@ -0,0 +1,92 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ContentDecoderTest {
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(data);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] data, boolean raw) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeflaterOutputStream deflate = new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, raw));
+        deflate.write(data);
+        deflate.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void decodesGzipAndBothDeflateFlavours() throws IOException {
+        byte[] text = "{\"entries\":[1,2,3]}".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(text, ContentDecoder.readBytes(ContentDecoder.decode(new ByteArrayInputStream(gzip(text)), "gzip"), -1));
+        assertArrayEquals(text, ContentDecoder.readBytes(ContentDecoder.decode(new ByteArrayInputStream(deflate(text, false)), "deflate"), -1));
+        assertArrayEquals(text, ContentDecoder.readBytes(ContentDecoder.decode(new ByteArrayInputStream(deflate(text, true)), "deflate"), -1));
+        assertArrayEquals(text, ContentDecoder.readBytes(ContentDecoder.decode(new ByteArrayInputStream(text), "identity"), -1));
+    }
+
+    @Test
+    public void gunzipUsesTheTrailerSize() throws IOException {
+        byte[] data = random(200000);
+        byte[] compressed = gzip(data);
+        assertEquals(data.length, ContentDecoder.gzipSize(compressed));
+        assertArrayEquals(data, ContentDecoder.gunzip(compressed));
+    }
+
+    @Test
+    public void implausibleTrailerSizeIsIgnored() throws IOException {
+        byte[] compressed = gzip(random(100));
+        // ISIZE of 2 GB for a stream of about 130 bytes.
+        compressed[compressed.length - 1] = 0x7F;
+        assertEquals(-1, ContentDecoder.gzipSize(compressed));
+        assertEquals(-1, ContentDecoder.gzipSize(new byte[]{1, 2, 3}));
+    }
+
+    @Test
+    public void announcedLengthOnlyPresizesUpToTheCap() throws IOException {
+        byte[] data = random(1000);
+        // A Content-Length close to 2 GB must not be allocated before any data arrives.
+        assertArrayEquals(data, ContentDecoder.readBytes(new ByteArrayInputStream(data), Integer.MAX_VALUE - 8));
+        assertEquals("short", ContentDecoder.readString(new ByteArrayInputStream("short".getBytes(StandardCharsets.UTF_8)),
+                Integer.MAX_VALUE - 8, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void bodiesLargerThanThePresizeCapStillArriveWhole() throws IOException {
+        byte[] data = random(ContentDecoder.MAX_PRESIZE + 12345);
+        assertArrayEquals(data, ContentDecoder.readBytes(new ByteArrayInputStream(data), data.length));
+        assertArrayEquals(data, ContentDecoder.gunzip(gzip(data)));
+
+        String text = new String(new char[ContentDecoder.MAX_PRESIZE + 3]).replace('\0', 'x');
+        assertEquals(text, ContentDecoder.readString(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)),
+                text.length(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shorterBodiesAreTrimmed() throws IOException {
+        byte[] data = random(10);
+        assertArrayEquals(data, ContentDecoder.readBytes(new ByteArrayInputStream(data), 4096));
+    }
+}
@@ -0,0 +1,239 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameSamplerTest {
+
+    private static final long MB = 1024L * 1024L;
+
+    private static final class Emitted {
+        final String scene;
+        final Map<String, Long> metrics;
+
+        Emitted(String scene, Map<String, Long> metrics) {
+            this.scene = scene;
+            this.metrics = metrics;
+        }
+    }
+
+    private long now;
+    private long heapBytes = 64 * MB;
+    private final List<Emitted> emitted = new ArrayList<>();
+    private FrameSampler sampler;
+
+    @Before
+    public void setUp() {
+        sampler = new FrameSampler(new FrameSampler.Clock() {
+            @Override
+            public long nanoTime() {
+                return now;
+            }
+        }, new FrameSampler.HeapProbe() {
+            @Override
+            public long usedBytes() {
+                return heapBytes;
+            }
+        }, new FrameSampler.Sink() {
+            @Override
+            public void emit(String scene, Map<String, Long> metrics) {
+                emitted.add(new Emitted(scene, metrics));
+            }
+        });
+    }
+
+    /**
+     * Advances the clock by the frame's duration and reports the frame.
+     */
+    private void frame(long millis) {
+        now += TimeUnit.MILLISECONDS.toNanos(millis);
+        sampler.onFrame(now);
+    }
+
+    private void frames(int count, long millis) {
+        for (int i = 0; i < count; i++) frame(millis);
+    }
+
+    private Emitted last() {
+        return emitted.get(emitted.size() - 1);
+    }
+
+    @Test
+    public void percentilesAreBucketUpperBounds() {
+        sampler.start(0L, 20L, 1000);
+        sampler.onFrame(now);
+        frames(90, 16);
+        frames(9, 33);
+        frame(100);
+        sampler.stop();
+
+        assertEquals(1, emitted.size());
+        Map<String, Long> metrics = last().metrics;
+        assertEquals(100L, (long) metrics.get("frames"));
+        // 250 us buckets: 16 ms lands in [16, 16.25) and 33 ms in [33, 33.25).
+        assertEquals(16250L, (long) metrics.get("frame_p50_us"));
+        assertEquals(16250L, (long) metrics.get("frame_p90_us"));
+        assertEquals(33250L, (long) metrics.get("frame_p99_us"));
+        assertEquals(100000L, (long) metrics.get("frame_max_us"));
+    }
+
+    @Test
+    public void percentilesNeverExceedTheLongestFrame() {
+        sampler.start(0L, 20L, 1000);
+        sampler.onFrame(now);
+        frames(10, 10);
+        sampler.stop();
+        assertEquals(10000L, (long) last().metrics.get("frame_p99_us"));
+    }
+
+    @Test
+    public void countsJankAndFrozenFrames() {
+        sampler.start(0L, 20L, 1000);
+        sampler.onFrame(now);
+        frames(50, 16);
+        frame(20);
+        frames(3, 21);
+        frame(800);
+        sampler.stop();
+
+        Map<String, Long> metrics = last().metrics;
+        assertEquals(55L, (long) metrics.get("frames"));
+        // Strictly longer than the threshold: the 20 ms frame is not jank.
+        assertEquals(4L, (long) metrics.get("jank_frames"));
+        assertEquals(1L, (long) metrics.get("frozen_frames"));
+    }
+
+    @Test
+    public void windowRollsOverAndKeepsTheBoundaryFrame() {
+        sampler.start(1000L, 20L, 1000);
+        sampler.onFrame(now);
+        // The 63rd 16 ms frame reaches 1008 ms and closes the window.
+        frames(63, 16);
+        assertEquals(1, emitted.size());
+        assertEquals("app", last().scene);
+        assertEquals(63L, (long) last().metrics.get("frames"));
+        assertEquals(1008L, (long) last().metrics.get("duration_ms"));
+
+        // The next frame is measured from the one that closed the window.
+        frames(10, 16);
+        sampler.stop();
+        assertEquals(2, emitted.size());
+        assertEquals(10L, (long) last().metrics.get("frames"));
+        assertEquals(16000L, (long) last().metrics.get("frame_max_us"));
+    }
+
+    @Test
+    public void sceneChangeCarriesTheLoadFrameIntoTheNewScene() {
+        sampler.start(0L, 20L, 1000);
+        sampler.markScene("menu");
+        assertTrue(emitted.isEmpty());
+
+        sampler.onFrame(now);
+        frames(30, 16);
+        sampler.markScene("level");
+        assertEquals(1, emitted.size());
+        assertEquals("menu", last().scene);
+        assertEquals(30L, (long) last().metrics.get("frames"));
+
+        frame(500);
+        frames(5, 16);
+        sampler.stop();
+        assertEquals("level", last().scene);
+        assertEquals(6L, (long) last().metrics.get("frames"));
+        assertEquals(500000L, (long) last().metrics.get("frame_max_us"));
+        assertEquals(1L, (long) last().metrics.get("jank_frames"));
+    }
+
+    @Test
+    public void sceneSetBeforeStartIsUsed() {
+        sampler.markScene("boot");
+        sampler.start(0L, 20L, 1000);
+        sampler.onFrame(now);
+        frames(3, 16);
+        sampler.stop();
+        assertEquals("boot", last().scene);
+    }
+
+    @Test
+    public void pauseDoesNotCountTheBackgroundGap() {
+        sampler.start(0L, 20L, 1000);
+        sampler.onFrame(now);
+        frames(20, 16);
+        sampler.pause();
+        assertEquals(1, emitted.size());
+        assertEquals(20L, (long) last().metrics.get("frames"));
+
+        // Back from the background ten seconds later.
+        frame(10000);
+        frames(5, 16);
+        sampler.stop();
+        assertEquals(2, emitted.size());
+        assertEquals(5L, (long) last().metrics.get("frames"));
+        assertEquals(0L, (long) last().metrics.get("frozen_frames"));
+        assertEquals(16000L, (long) last().metrics.get("frame_max_us"));
+    }
+
+    @Test
+    public void emptyWindowsAreNotEmitted() {
+        sampler.start(1000L, 20L, 1000);
+        sampler.pause();
+        sampler.onFrame(now);
+        sampler.stop();
+        assertTrue(emitted.isEmpty());
+    }
+
+    @Test
+    public void framesAreIgnoredWhenStopped() {
+        sampler.onFrame(now);
+        frames(10, 16);
+        assertEquals(0L, (long) sampler.snapshot().get("frames"));
+
+        sampler.start(0L, 20L, 1000);
+        sampler.onFrame(now);
+        frames(2, 16);
+        sampler.stop();
+        frames(10, 16);
+        assertEquals(1, emitted.size());
+        assertEquals(2L, (long) last().metrics.get("frames"));
+    }
+
+    @Test
+    public void restartingFlushesTheRunningWindow() {
+        sampler.start(0L, 20L, 1000);
+        sampler.onFrame(now);
+        frames(4, 16);
+        sampler.start(0L, 50L, 1000);
+        assertEquals(1, emitted.size());
+
+        sampler.onFrame(now);
+        frame(40);
+        sampler.stop();
+        assertEquals(0L, (long) last().metrics.get("jank_frames"));
+    }
+
+    @Test
+    public void samplesHeapEveryNthFrame() {
+        sampler.start(0L, 20L, 2);
+        long[] heap = {10 * MB + MB / 2, 30 * MB + MB / 2, 20 * MB + MB / 2};
+        // Every second onFrame call reads the heap: calls 2, 4 and 6 see one value each.
+        sampler.onFrame(now);
+        for (long used : heap) {
+            heapBytes = used;
+            frame(16);
+            frame(16);
+        }
+        sampler.stop();
+
+        Map<String, Long> metrics = last().metrics;
+        assertEquals(31L, (long) metrics.get("heap_peak_mb"));
+        assertEquals(21L, (long) metrics.get("heap_p50_mb"));
+    }
+}
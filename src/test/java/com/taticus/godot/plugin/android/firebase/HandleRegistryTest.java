@@ -0,0 +1,121 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HandleRegistryTest {
+
+    @Test
+    public void addAndLookUp() {
+        HandleRegistry<String> registry = new HandleRegistry<>();
+        int a = registry.add("a");
+        int b = registry.add("b");
+        assertNotEquals(a, b);
+        assertEquals("a", registry.get(a));
+        assertEquals("b", registry.get(b));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void removedHandleIsStale() {
+        HandleRegistry<String> registry = new HandleRegistry<>();
+        int handle = registry.add("a");
+        assertEquals("a", registry.remove(handle));
+        assertNull(registry.get(handle));
+        assertNull(registry.remove(handle));
+        assertEquals(0, registry.size());
+        assertEquals(2, registry.stats(60000L).get("stale_lookups"));
+    }
+
+    @Test
+    public void reusedSlotDoesNotAliasOldHandle() {
+        HandleRegistry<String> registry = new HandleRegistry<>();
+        int old = registry.add("old");
+        registry.remove(old);
+        int reused = registry.add("new");
+        assertNotEquals(old, reused);
+        assertNull(registry.get(old));
+        assertEquals("new", registry.get(reused));
+        assertEquals(1, registry.stats(60000L).get("slots"));
+    }
+
+    @Test
+    public void invalidHandlesAreRejected() {
+        HandleRegistry<String> registry = new HandleRegistry<>();
+        registry.add("a");
+        assertNull(registry.get(HandleRegistry.INVALID));
+        assertNull(registry.get(-12345));
+        assertNull(registry.get(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        HandleRegistry<Integer> registry = new HandleRegistry<>();
+        int[] handles = new int[1000];
+        for (int i = 0; i < handles.length; i++) handles[i] = registry.add(i);
+        for (int i = 0; i < handles.length; i++) assertEquals(Integer.valueOf(i), registry.get(handles[i]));
+        assertEquals(1000, registry.size());
+    }
+
+    @Test
+    public void generationWrapsWithoutProducingNegativeOrRepeatedHandles() {
+        HandleRegistry<String> registry = new HandleRegistry<>();
+        Set<Integer> seen = new HashSet<>();
+        int previous = registry.add("first");
+        seen.add(previous);
+        // One full cycle of the 15-bit generation on a single slot.
+        for (int i = 0; i < 32766; i++) {
+            registry.remove(previous);
+            int handle = registry.add("x");
+            assertTrue(handle >= 0);
+            assertTrue("handle repeated after " + i + " reuses", seen.add(handle));
+            assertNull(registry.get(previous));
+            previous = handle;
+        }
+        registry.remove(previous);
+        int wrapped = registry.add("wrapped");
+        assertTrue(wrapped > 0);
+        assertEquals("wrapped", registry.get(wrapped));
+    }
+
+    @Test
+    public void rejectsAllocationsPastTheSlotLimit() {
+        HandleRegistry<Object> registry = new HandleRegistry<>();
+        Object value = new Object();
+        for (int i = 0; i < 1 << 16; i++) {
+            assertTrue(registry.add(value) != HandleRegistry.INVALID);
+        }
+        assertEquals(HandleRegistry.INVALID, registry.add(value));
+    }
+
+    @Test
+    public void reportsHandlesOlderThanTheLeakAge() throws InterruptedException {
+        HandleRegistry<String> registry = new HandleRegistry<>();
+        int old = registry.add("old");
+        int released = registry.add("released");
+        registry.remove(released);
+        Thread.sleep(20L);
+        int fresh = registry.add("fresh");
+
+        assertArrayEquals(new int[]{old}, registry.leaked(10L));
+        assertEquals(0, registry.leaked(60000L).length);
+        assertEquals("fresh", registry.get(fresh));
+    }
+
+    @Test
+    public void statsCountAllocations() {
+        HandleRegistry<String> registry = new HandleRegistry<>();
+        registry.remove(registry.add("a"));
+        registry.add("b");
+        assertEquals(1, registry.stats(60000L).get("live"));
+        assertEquals(2, registry.stats(60000L).get("allocated"));
+    }
+}
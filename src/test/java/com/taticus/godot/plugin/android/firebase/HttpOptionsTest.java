@@ -0,0 +1,63 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HttpOptionsTest {
+
+    private final List<String> warnings = new ArrayList<>();
+
+    private final HttpRequests.Warnings collect = new HttpRequests.Warnings() {
+        @Override
+        public void warn(String message) {
+            warnings.add(message);
+        }
+    };
+
+    @Test
+    public void nullOrEmptyOptionsAreTheDefaults() {
+        assertSame(HttpOptions.DEFAULT, HttpOptions.parse(null, collect));
+        assertSame(HttpOptions.DEFAULT, HttpOptions.parse(new HashMap<String, Object>(), collect));
+        assertEquals(HttpResult.FORMAT_BYTES, HttpOptions.parse(null, HttpResult.FORMAT_BYTES, collect).responseFormat);
+    }
+
+    @Test
+    public void readsResponseFormatAndPointers() {
+        Map<String, Object> options = new HashMap<>();
+        options.put("response_format", "JSON");
+        options.put("json_pointer", new Object[]{"/a", "/b"});
+        HttpOptions parsed = HttpOptions.parse(options, collect);
+        assertEquals(HttpResult.FORMAT_JSON, parsed.responseFormat);
+        assertNotNull(parsed.jsonPointer);
+        assertTrue(warnings.isEmpty());
+    }
+
+    @Test
+    public void unknownResponseFormatFallsBackToText() {
+        Map<String, Object> options = new HashMap<>();
+        options.put("response_format", "xml");
+        assertEquals(HttpResult.FORMAT_TEXT, HttpOptions.parse(options, HttpResult.FORMAT_BYTES, collect).responseFormat);
+        assertEquals(1, warnings.size());
+    }
+
+    @Test
+    public void invalidPointerIsIgnored() {
+        Map<String, Object> options = new HashMap<>();
+        options.put("response_format", "json");
+        options.put("json_pointer", "entries");
+        HttpOptions parsed = HttpOptions.parse(options, collect);
+        assertNull(parsed.jsonPointer);
+        assertEquals(HttpResult.FORMAT_JSON, parsed.responseFormat);
+        assertEquals(1, warnings.size());
+    }
+}
@@ -0,0 +1,153 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpRequestsTest {
+
+    private static final String URL = "https://api.example.com/scores";
+
+    private final List<String> warnings = new ArrayList<>();
+    private HttpRequests requests;
+
+    @Before
+    public void setUp() {
+        // Building requests never touches the HTTP services.
+        requests = new HttpRequests(null, new HttpRequests.Warnings() {
+            @Override
+            public void warn(String message) {
+                warnings.add(message);
+            }
+        });
+        requests.profiles.put("api", HeaderProfile.build(new String[]{
+                "X-Api-Key: secret",
+                "Accept: application/json",
+                "Content-Type: application/json",
+        }));
+    }
+
+    private HttpOptions options(String key, Object value) {
+        Map<String, Object> options = new HashMap<>();
+        options.put(key, value);
+        return HttpOptions.parse(options, requests.warnings);
+    }
+
+    @Test
+    public void requestHeadersReplaceProfileEntries() {
+        Request request = requests.build(URL, new String[]{"Accept: text/plain", "X-Trace: 1"}, "GET", null, options("header_profile", "api"));
+        assertEquals("secret", request.header("X-Api-Key"));
+        assertEquals(Arrays.asList("text/plain"), request.headers("Accept"));
+        assertEquals("1", request.header("X-Trace"));
+        assertTrue(warnings.isEmpty());
+    }
+
+    @Test
+    public void repeatedRequestHeadersAreAllSent() {
+        String[] headers = {"Accept: text/plain", "accept: text/html", "X-Tag: a", "X-Tag: b"};
+        Request withProfile = requests.build(URL, headers, "GET", null, options("header_profile", "api"));
+        Request withoutProfile = requests.build(URL, headers, "GET", null, HttpOptions.DEFAULT);
+        for (Request request : new Request[]{withProfile, withoutProfile}) {
+            assertEquals(Arrays.asList("text/plain", "text/html"), request.headers("Accept"));
+            assertEquals(Arrays.asList("a", "b"), request.headers("X-Tag"));
+        }
+        assertEquals("secret", withProfile.header("X-Api-Key"));
+    }
+
+    @Test
+    public void profileContentTypeIsUsedForTheBody() {
+        Request request = requests.build(URL, new String[0], "POST", "{}", options("header_profile", "api"));
+        assertEquals("application", request.body().contentType().type());
+        assertEquals("json", request.body().contentType().subtype());
+    }
+
+    @Test
+    public void unknownProfileIsSkippedWithAWarning() {
+        Request request = requests.build(URL, new String[]{"X-Trace: 1"}, "GET", null, options("header_profile", "missing"));
+        assertEquals("1", request.header("X-Trace"));
+        assertNull(request.header("X-Api-Key"));
+        assertEquals(1, warnings.size());
+        assertTrue(warnings.get(0).contains("missing"));
+    }
+
+    @Test
+    public void malformedHeadersAreSkippedWithAWarning() {
+        Request request = requests.build(URL, new String[]{"no colon", "X-Trace: 1"}, "GET", null, HttpOptions.DEFAULT);
+        assertEquals("1", request.header("X-Trace"));
+        assertEquals(1, warnings.size());
+    }
+
+    @Test
+    public void onlyPostCarriesATextBody() {
+        assertNull(requests.build(URL, new String[0], "GET", "ignored", HttpOptions.DEFAULT).body());
+        assertEquals("POST", requests.build(URL, new String[0], "POST", "{}", HttpOptions.DEFAULT).method());
+    }
+
+    @Test
+    public void rawBodiesFollowTheMethod() {
+        assertNull(requests.buildRaw(URL, new String[0], "HEAD", new byte[]{1}, HttpOptions.DEFAULT).body());
+        assertEquals(0L, contentLength(requests.buildRaw(URL, new String[0], "PUT", null, HttpOptions.DEFAULT)));
+        assertEquals(3L, contentLength(requests.buildRaw(URL, new String[0], "PATCH", new byte[]{1, 2, 3}, HttpOptions.DEFAULT)));
+    }
+
+    @Test
+    public void cacheOptionsBecomeCacheControl() {
+        assertTrue(requests.build(URL, new String[0], "GET", null, options("no_cache", true)).cacheControl().noCache());
+        assertEquals(60, requests.build(URL, new String[0], "GET", null, options("max_stale", 60)).cacheControl().maxStaleSeconds());
+    }
+
+    @Test
+    public void queuedDownloadIsCancelledById() {
+        HttpServices services = new HttpServices(new OkHttpClient(), null, null, null);
+        HttpRequests downloads = new HttpRequests(services, requests.warnings);
+        services.scheduler.setMaxConcurrency(1);
+        // Holds the only slot so the download stays queued.
+        services.scheduler.submit(new HttpScheduler.Job("other.example.com", HttpScheduler.INTERACTIVE) {
+            @Override
+            void run() {
+            }
+        });
+
+        final List<String> reported = new ArrayList<>();
+        downloads.download(7, downloads.build(URL, new String[0], "GET", null, HttpOptions.DEFAULT), "/tmp/never", new HttpDownload.Listener() {
+            @Override
+            public void onProgress(int id, long bytes, long total) {
+                reported.add("progress");
+            }
+
+            @Override
+            public void onCompleted(int id, int code, String result) {
+                reported.add("completed");
+            }
+        });
+        assertEquals(1, services.scheduler.queuedCount());
+
+        assertTrue(downloads.cancel(7));
+        assertFalse(downloads.cancel(7));
+        assertEquals(0, services.scheduler.queuedCount());
+        assertEquals(0, downloads.size());
+        assertTrue(reported.isEmpty());
+    }
+
+    private static long contentLength(Request request) {
+        try {
+            return request.body().contentLength();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
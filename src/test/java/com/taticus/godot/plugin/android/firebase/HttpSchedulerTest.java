@@ -0,0 +1,60 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class HttpSchedulerTest {
+
+    private final List<String> started = new ArrayList<>();
+    private final HttpScheduler scheduler = new HttpScheduler();
+
+    private HttpScheduler.Job job(final String name, String host, int priority) {
+        return new HttpScheduler.Job(host, priority) {
+            @Override
+            void run() {
+                started.add(name);
+            }
+        };
+    }
+
+    private void submitBackground(int count) {
+        for (int i = 0; i < count; i++) {
+            scheduler.submit(job("b" + i, "host" + i, HttpScheduler.BACKGROUND));
+        }
+    }
+
+    @Test
+    public void backgroundJobsLeaveTheInteractiveReserve() {
+        scheduler.setMaxConcurrency(4);
+        submitBackground(4);
+        assertEquals(2, scheduler.runningCount());
+
+        scheduler.submit(job("i", "host9", HttpScheduler.INTERACTIVE));
+        assertEquals(3, scheduler.runningCount());
+        assertEquals("i", started.get(2));
+    }
+
+    @Test
+    public void reserveComesBackWhenTheLimitIsRaised() {
+        // A limit of two leaves only one slot in reserve.
+        scheduler.setMaxConcurrency(2);
+        scheduler.setMaxConcurrency(10);
+        submitBackground(10);
+        assertEquals(8, scheduler.runningCount());
+    }
+
+    @Test
+    public void raisingTheLimitStartsQueuedJobs() {
+        scheduler.setMaxConcurrency(3);
+        submitBackground(5);
+        assertEquals(1, scheduler.runningCount());
+
+        scheduler.setMaxConcurrency(6);
+        assertEquals(4, scheduler.runningCount());
+        assertEquals(1, scheduler.queuedCount());
+    }
+}
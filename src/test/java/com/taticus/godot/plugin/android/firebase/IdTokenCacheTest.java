@@ -0,0 +1,166 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IdTokenCacheTest {
+
+    /**
+     * Holds every fetch until the test answers it.
+     */
+    private static final class FakeSource implements IdTokenCache.Source {
+        final List<Boolean> forced = new ArrayList<>();
+        final List<IdTokenCache.Callback> callbacks = new ArrayList<>();
+
+        @Override
+        public void fetch(boolean forceRefresh, IdTokenCache.Callback callback) {
+            forced.add(forceRefresh);
+            callbacks.add(callback);
+        }
+    }
+
+    private static final class Recorder implements IdTokenCache.Listener {
+        final List<String> tokens = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+
+        @Override
+        public void onToken(String token) {
+            tokens.add(token);
+        }
+
+        @Override
+        public void onError(String message) {
+            errors.add(message);
+        }
+    }
+
+    private ScheduledExecutorService timer;
+    private FakeSource source;
+    private IdTokenCache cache;
+
+    @Before
+    public void setUp() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        source = new FakeSource();
+        cache = new IdTokenCache(source, timer);
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    private static long inAnHour() {
+        return System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+    }
+
+    @Test
+    public void concurrentGetsShareOneFetch() {
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        cache.get(false, first);
+        cache.get(false, second);
+        assertEquals(1, source.callbacks.size());
+
+        source.callbacks.get(0).onToken("token", inAnHour());
+        assertEquals("[token]", first.tokens.toString());
+        assertEquals("[token]", second.tokens.toString());
+        assertEquals("token", cache.cached());
+    }
+
+    @Test
+    public void cachedTokenIsServedWithoutAFetch() {
+        cache.get(false, new Recorder());
+        source.callbacks.get(0).onToken("token", inAnHour());
+
+        Recorder recorder = new Recorder();
+        cache.get(false, recorder);
+        assertEquals(1, source.callbacks.size());
+        assertEquals("[token]", recorder.tokens.toString());
+    }
+
+    @Test
+    public void forcedGetDoesNotJoinANonForcedFetch() {
+        Recorder plain = new Recorder();
+        Recorder forced = new Recorder();
+        cache.get(false, plain);
+        // The server rejected the old token while the first fetch was running.
+        cache.invalidate();
+        cache.get(true, forced);
+        assertEquals(2, source.callbacks.size());
+        assertEquals(Boolean.TRUE, source.forced.get(1));
+
+        // The older fetch still answers with the rejected token; nobody may see it.
+        source.callbacks.get(0).onToken("rejected", inAnHour());
+        assertTrue(plain.tokens.isEmpty());
+        assertTrue(forced.tokens.isEmpty());
+        assertNull(cache.cached());
+
+        source.callbacks.get(1).onToken("fresh", inAnHour());
+        assertEquals("[fresh]", plain.tokens.toString());
+        assertEquals("[fresh]", forced.tokens.toString());
+        assertEquals("fresh", cache.cached());
+    }
+
+    @Test
+    public void supersededFetchErrorIsIgnored() {
+        Recorder forced = new Recorder();
+        cache.get(false, new Recorder());
+        cache.get(true, forced);
+        source.callbacks.get(0).onError("network");
+        assertTrue(forced.errors.isEmpty());
+
+        source.callbacks.get(1).onToken("fresh", inAnHour());
+        assertEquals("[fresh]", forced.tokens.toString());
+    }
+
+    @Test
+    public void getsJoinARunningForcedFetch() {
+        Recorder forced = new Recorder();
+        Recorder again = new Recorder();
+        Recorder plain = new Recorder();
+        cache.get(true, forced);
+        cache.get(true, again);
+        cache.get(false, plain);
+        assertEquals(1, source.callbacks.size());
+
+        source.callbacks.get(0).onToken("fresh", inAnHour());
+        assertEquals(1, again.tokens.size());
+        assertEquals(1, plain.tokens.size());
+    }
+
+    @Test
+    public void errorsReachEveryWaiterAndAllowANewFetch() {
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        cache.get(false, first);
+        cache.get(false, second);
+        source.callbacks.get(0).onError("offline");
+        assertEquals("[offline]", first.errors.toString());
+        assertEquals("[offline]", second.errors.toString());
+
+        cache.get(false, new Recorder());
+        assertEquals(2, source.callbacks.size());
+    }
+
+    @Test
+    public void tokenFetchedBeforeInvalidateIsNotCached() {
+        Recorder recorder = new Recorder();
+        cache.get(false, recorder);
+        cache.invalidate();
+        source.callbacks.get(0).onToken("stale", inAnHour());
+        assertEquals("[stale]", recorder.tokens.toString());
+        assertNull(cache.cached());
+    }
+}
@@ -0,0 +1,216 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsonParserTest {
+
+    /**
+     * Hands out one character per read, so every token crosses a buffer refill.
+     */
+    private static final class TrickleReader extends Reader {
+        private final String text;
+        private int position;
+
+        TrickleReader(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position == text.length()) return -1;
+            buffer[offset] = text.charAt(position++);
+            return 1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static Object parse(String json) throws IOException {
+        return new JsonParser(new StringReader(json), JsonParser.HASH_MAPS).parse(null);
+    }
+
+    private static Object project(String json, Object pointers) throws IOException {
+        return new JsonParser(new StringReader(json), JsonParser.HASH_MAPS).parse(JsonParser.Projection.of(pointers));
+    }
+
+    private static void assertInvalid(String json) throws IOException {
+        try {
+            parse(json);
+            fail("Parsed " + json);
+        } catch (JsonParser.SyntaxException expected) {
+        }
+        // Skipped values are validated the same way.
+        try {
+            project("{\"skipped\":" + json + ",\"kept\":1}", "/kept");
+            fail("Skipped " + json);
+        } catch (JsonParser.SyntaxException expected) {
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> map(Object value) {
+        return (Map<String, Object>) value;
+    }
+
+    @Test
+    public void parsesObjectsAndArrays() throws IOException {
+        Map<String, Object> object = map(parse(" {\"name\": \"ada\", \"tags\": [true, false, null], \"empty\": {}, \"none\": []} "));
+        assertEquals("ada", object.get("name"));
+        assertArrayEquals(new Object[]{true, false, null}, (Object[]) object.get("tags"));
+        assertTrue(map(object.get("empty")).isEmpty());
+        assertEquals(0, ((Object[]) object.get("none")).length);
+        assertTrue(object.containsKey("none"));
+    }
+
+    @Test
+    public void emptyBodyIsNull() throws IOException {
+        assertNull(parse(""));
+        assertNull(parse(" \n\t"));
+    }
+
+    @Test
+    public void decodesEscapes() throws IOException {
+        assertEquals("a\"b\\c/d\b\f\n\r\t\u00e9\ud83d\ude00", parse("\"a\\\"b\\\\c\\/d\\b\\f\\n\\r\\t\\u00e9\\ud83d\\ude00\""));
+    }
+
+    @Test
+    public void readsAcrossBufferBoundaries() throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 3000; i++) json.append(i > 0 ? "," : "").append("{\"id\":").append(i).append(",\"v\":-1.5e2,\"s\":\"x\\u0041\"}");
+        json.append(']');
+
+        Object[] items = (Object[]) new JsonParser(new TrickleReader(json.toString()), JsonParser.HASH_MAPS).parse(null);
+        assertEquals(3000, items.length);
+        assertEquals(2999, map(items[2999]).get("id"));
+        assertEquals(-150.0, map(items[0]).get("v"));
+        assertEquals("xA", map(items[0]).get("s"));
+        assertEquals(items.length, ((Object[]) parse(json.toString())).length);
+    }
+
+    @Test
+    public void integersKeepTheirType() throws IOException {
+        assertEquals(0, parse("0"));
+        assertEquals(-0, parse("-0"));
+        assertEquals(Integer.MAX_VALUE, parse("2147483647"));
+        assertEquals(Integer.MIN_VALUE, parse("-2147483648"));
+        assertEquals(2147483648L, parse("2147483648"));
+        assertEquals(-2147483649L, parse("-2147483649"));
+        assertEquals(Long.MAX_VALUE, parse("9223372036854775807"));
+        assertEquals(Long.MIN_VALUE, parse("-9223372036854775808"));
+        assertEquals(9.223372036854775808e18, parse("9223372036854775808"));
+    }
+
+    @Test
+    public void largeIntegersRoundTripExactly() throws IOException {
+        // Not representable as a double: 2^53 + 1.
+        assertEquals(9007199254740993L, parse("9007199254740993"));
+        assertEquals(9007199254740993L, map(parse("{\"id\":9007199254740993}")).get("id"));
+    }
+
+    @Test
+    public void fractionsAndExponentsAreDoubles() throws IOException {
+        assertEquals(1.5, parse("1.5"));
+        assertEquals(-0.25, parse("-0.25"));
+        assertEquals(100.0, parse("1e2"));
+        assertEquals(100.0, parse("1E+2"));
+        assertEquals(0.01, parse("1e-2"));
+        assertEquals(0.0, parse("0.0"));
+        assertEquals(12.5, parse("1.25e1"));
+    }
+
+    @Test
+    public void rejectsNumbersOutsideTheGrammar() throws IOException {
+        for (String number : Arrays.asList("+1", ".5", "1.", "01", "-01", "00", "-", "1e", "1e+", "1.e5", "-.5", "1.5.2", "0x10", "1-2", "--1", "Infinity", "NaN")) {
+            assertInvalid(number);
+        }
+    }
+
+    @Test
+    public void rejectsMalformedDocuments() throws IOException {
+        for (String json : Arrays.asList("{", "[1,", "[1 2]", "{\"a\" 1}", "{a:1}", "{\"a\":1,}", "[1,]", "\"open", "tru", "nul",
+                "\"tab\there\"", "\"\\x\"", "\"\\u12\"", "{} {}", "1 2")) {
+            assertInvalid(json);
+        }
+    }
+
+    @Test
+    public void rejectsExcessiveNesting() throws IOException {
+        char[] open = new char[600];
+        Arrays.fill(open, '[');
+        assertInvalid(new String(open));
+    }
+
+    @Test
+    public void singlePointerReturnsOnlyThatValue() throws IOException {
+        String json = "{\"meta\":{\"total\":42},\"entries\":[{\"name\":\"a\"},{\"name\":\"b\"}]}";
+        assertEquals(42, project(json, "/meta/total"));
+        assertEquals("b", project(json, "/entries/1/name"));
+        assertNull(project(json, "/entries/2/name"));
+        assertNull(project(json, "/missing"));
+    }
+
+    @Test
+    public void severalPointersReturnAMapOfTheFoundOnes() throws IOException {
+        String json = "{\"meta\":{\"total\":42},\"entries\":[{\"name\":\"a\"},{\"name\":\"b\"}]}";
+        Map<String, Object> found = map(project(json, new Object[]{"/entries", "/meta/total", "/missing"}));
+        assertEquals(2, found.size());
+        assertEquals(42, found.get("/meta/total"));
+        assertEquals(2, ((Object[]) found.get("/entries")).length);
+        assertFalse(found.containsKey("/missing"));
+    }
+
+    @Test
+    public void pointersBelowABuiltValueAreResolved() throws IOException {
+        String json = "{\"entries\":[{\"name\":\"a\"},{\"name\":\"b\"}]}";
+        Map<String, Object> found = map(project(json, new Object[]{"/entries", "/entries/0/name", "/entries/5/name"}));
+        assertEquals("a", found.get("/entries/0/name"));
+        assertFalse(found.containsKey("/entries/5/name"));
+    }
+
+    @Test
+    public void pointerTokensAreUnescaped() throws IOException {
+        assertEquals(1, project("{\"a/b\":1,\"c~d\":2}", "/a~1b"));
+        assertEquals(2, project("{\"a/b\":1,\"c~d\":2}", "/c~0d"));
+    }
+
+    @Test
+    public void emptyPointerIsTheWholeDocument() throws IOException {
+        assertArrayEquals(new Object[]{1, 2}, (Object[]) project("[1,2]", ""));
+    }
+
+    @Test
+    public void projectionStillValidatesTheDocument() throws IOException {
+        try {
+            project("{\"kept\":1,\"skipped\":[1,}", "/kept");
+            fail();
+        } catch (JsonParser.SyntaxException expected) {
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pointerMustStartWithASlash() {
+        JsonParser.Projection.of("entries");
+    }
+
+    @Test
+    public void noPointersMeansNoProjection() {
+        assertNull(JsonParser.Projection.of(null));
+        assertNull(JsonParser.Projection.of(new Object[0]));
+        assertNull(JsonParser.Projection.of(42));
+    }
+}
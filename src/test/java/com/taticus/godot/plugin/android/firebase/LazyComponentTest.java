@@ -0,0 +1,145 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LazyComponentTest {
+
+    private static LazyComponent.Factory<String> returning(final String value) {
+        return new LazyComponent.Factory<String>() {
+            @Override
+            public String create() {
+                return value;
+            }
+        };
+    }
+
+    private static LazyComponent.Factory<String> throwing(final Throwable failure) {
+        return new LazyComponent.Factory<String>() {
+            @Override
+            public String create() throws Exception {
+                if (failure instanceof Exception) throw (Exception) failure;
+                throw (Error) failure;
+            }
+        };
+    }
+
+    @Test
+    public void createsOnFirstGet() {
+        LazyComponent<String> component = new LazyComponent<>(returning("auth"));
+        assertEquals("auth", component.get());
+        assertEquals(true, component.stats().get("ready"));
+    }
+
+    @Test
+    public void getIfReadyNeverCreates() {
+        LazyComponent<String> component = new LazyComponent<>(returning("performance"));
+        assertNull(component.getIfReady());
+        assertEquals(false, component.stats().get("ready"));
+        component.get();
+        assertEquals("performance", component.getIfReady());
+    }
+
+    @Test
+    public void failedCreationReturnsNull() {
+        LazyComponent<String> component = new LazyComponent<>(throwing(new IllegalStateException("no google services")));
+        assertNull(component.get());
+        assertNull(component.get());
+        assertEquals(true, component.stats().get("failed"));
+        assertEquals("no google services", component.stats().get("error"));
+    }
+
+    @Test
+    public void errorDuringCreationDoesNotHangWaiters() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        LazyComponent<String> component = new LazyComponent<>(new LazyComponent.Factory<String>() {
+            @Override
+            public String create() throws Exception {
+                release.await();
+                throw new NoClassDefFoundError("com/google/firebase/perf/FirebasePerformance");
+            }
+        });
+        component.start(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                new Thread(command).start();
+            }
+        });
+
+        final CountDownLatch returned = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                assertNull(component.get());
+                returned.countDown();
+            }
+        });
+        waiter.start();
+        release.countDown();
+        assertTrue(returned.await(5, TimeUnit.SECONDS));
+        assertEquals(true, component.stats().get("failed"));
+    }
+
+    @Test
+    public void queuedActionsReplayInOrder() {
+        final List<String> calls = new ArrayList<>();
+        LazyComponent<String> component = new LazyComponent<>(returning("analytics"));
+        for (int i = 0; i < 3; i++) {
+            final int index = i;
+            component.whenReady(new LazyComponent.Action<String>() {
+                @Override
+                public void run(String value) {
+                    calls.add(value + index);
+                }
+            });
+        }
+        component.get();
+        assertEquals(3, component.stats().get("queued_calls"));
+        assertEquals("[analytics0, analytics1, analytics2]", calls.toString());
+    }
+
+    @Test
+    public void throwingReplayedActionStillPublishesTheComponent() {
+        final List<String> calls = new ArrayList<>();
+        LazyComponent<String> component = new LazyComponent<>(returning("crashlytics"));
+        component.whenReady(new LazyComponent.Action<String>() {
+            @Override
+            public void run(String value) {
+                throw new AssertionError("bad call");
+            }
+        });
+        component.whenReady(new LazyComponent.Action<String>() {
+            @Override
+            public void run(String value) {
+                calls.add(value);
+            }
+        });
+
+        assertEquals("crashlytics", component.get());
+        assertEquals(1, calls.size());
+        assertEquals(1, component.stats().get("failed_calls"));
+    }
+
+    @Test
+    public void actionsForAFailedComponentAreDropped() {
+        final List<String> calls = new ArrayList<>();
+        LazyComponent<String> component = new LazyComponent<>(throwing(new RuntimeException("boom")));
+        component.get();
+        component.whenReady(new LazyComponent.Action<String>() {
+            @Override
+            public void run(String value) {
+                calls.add(value);
+            }
+        });
+        assertTrue(calls.isEmpty());
+    }
+}
@@ -0,0 +1,232 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OfflineRequestQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScheduledExecutorService timer;
+    private File directory;
+
+    /**
+     * Answers every send with the next code from its list and 0 (offline) once the list is used up.
+     */
+    private static final class FakeSender implements OfflineRequestQueue.Sender {
+        final List<String> sent = new ArrayList<>();
+        final List<Integer> codes = new ArrayList<>();
+
+        @Override
+        public void send(OfflineRequestQueue.Record record, OfflineRequestQueue.Result result) {
+            sent.add(record.key);
+            result.onResult(codes.isEmpty() ? 0 : codes.remove(0), "");
+        }
+    }
+
+    private static final OfflineRequestQueue.Listener IGNORE = new OfflineRequestQueue.Listener() {
+        @Override
+        public void onDelivered(OfflineRequestQueue.Record record, int code, String body) {
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        directory = folder.newFolder("wal");
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    private OfflineRequestQueue open(FakeSender sender) throws IOException {
+        return new OfflineRequestQueue(directory, timer, sender, IGNORE);
+    }
+
+    private static void append(OfflineRequestQueue queue, String key, String body) throws IOException {
+        queue.append(key, "POST", "https://example.com/scores", new String[]{"Idempotency-Key: " + key}, body, false);
+    }
+
+    private File[] segments() {
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+        return files;
+    }
+
+    private File lastNonEmptySegment() {
+        File[] files = segments();
+        for (int i = files.length - 1; i >= 0; i--) {
+            if (files[i].length() > 0) return files[i];
+        }
+        throw new AssertionError("No segment with records");
+    }
+
+    private static void truncate(File file, long bytes) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - bytes);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void flipByte(File file, long position) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(position);
+            int value = raf.read();
+            raf.seek(position);
+            raf.write(value ^ 0xff);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void recordsSurviveReopening() throws IOException {
+        OfflineRequestQueue queue = open(new FakeSender());
+        append(queue, "a", "{\"score\":1}");
+        append(queue, "b", null);
+        append(queue, "c", "{\"score\":3}");
+
+        FakeSender sender = new FakeSender();
+        sender.codes.addAll(Arrays.asList(200, 200, 200));
+        OfflineRequestQueue reopened = open(sender);
+        assertEquals(3, reopened.stats().get("depth"));
+        reopened.replay();
+        assertEquals(Arrays.asList("a", "b", "c"), sender.sent);
+        assertEquals(0, reopened.stats().get("depth"));
+    }
+
+    @Test
+    public void acknowledgedRecordsAreNotReplayedAfterRestart() throws IOException {
+        FakeSender sender = new FakeSender();
+        sender.codes.add(201);
+        OfflineRequestQueue queue = open(sender);
+        append(queue, "a", "1");
+        append(queue, "b", "2");
+        queue.replay();
+        assertEquals(Arrays.asList("a", "b"), sender.sent);
+
+        OfflineRequestQueue reopened = open(new FakeSender());
+        assertEquals(1, reopened.stats().get("depth"));
+    }
+
+    @Test
+    public void serverErrorsKeepTheRecordAndClientErrorsDropIt() throws IOException {
+        FakeSender sender = new FakeSender();
+        sender.codes.addAll(Arrays.asList(503, 400));
+        OfflineRequestQueue queue = open(sender);
+        append(queue, "a", "1");
+        queue.replay();
+        assertEquals(1, queue.stats().get("depth"));
+        assertEquals("HTTP 503", queue.stats().get("last_error"));
+
+        queue.replay();
+        assertEquals(0, queue.stats().get("depth"));
+    }
+
+    @Test
+    public void tornTailDropsOnlyTheLastRecord() throws IOException {
+        OfflineRequestQueue queue = open(new FakeSender());
+        append(queue, "a", "1");
+        append(queue, "b", "2");
+        append(queue, "c", "3");
+        truncate(lastNonEmptySegment(), 3);
+
+        FakeSender sender = new FakeSender();
+        sender.codes.addAll(Arrays.asList(200, 200, 200));
+        OfflineRequestQueue reopened = open(sender);
+        assertEquals(2, reopened.stats().get("depth"));
+        reopened.replay();
+        assertEquals(Arrays.asList("a", "b"), sender.sent);
+    }
+
+    @Test
+    public void truncatedHeaderIsIgnored() throws IOException {
+        OfflineRequestQueue queue = open(new FakeSender());
+        append(queue, "a", "1");
+        File segment = lastNonEmptySegment();
+        long length = segment.length();
+        append(queue, "b", "2");
+        // Leave only part of b's length and checksum behind.
+        truncate(segment, segment.length() - length - 5);
+
+        assertEquals(1, open(new FakeSender()).stats().get("depth"));
+    }
+
+    @Test
+    public void corruptRecordEndsItsSegment() throws IOException {
+        OfflineRequestQueue queue = open(new FakeSender());
+        append(queue, "a", "1");
+        File segment = lastNonEmptySegment();
+        long second = segment.length();
+        append(queue, "b", "2");
+        append(queue, "c", "3");
+        // A flipped payload byte in b fails its checksum; c, after it, is not trusted either.
+        flipByte(segment, second + 12);
+
+        assertEquals(1, open(new FakeSender()).stats().get("depth"));
+    }
+
+    @Test
+    public void appendsAfterATornTailAreKept() throws IOException {
+        OfflineRequestQueue queue = open(new FakeSender());
+        append(queue, "a", "1");
+        append(queue, "b", "2");
+        truncate(lastNonEmptySegment(), 3);
+
+        OfflineRequestQueue recovered = open(new FakeSender());
+        append(recovered, "c", "3");
+
+        FakeSender sender = new FakeSender();
+        sender.codes.addAll(Arrays.asList(200, 200, 200));
+        OfflineRequestQueue reopened = open(sender);
+        reopened.replay();
+        assertEquals(Arrays.asList("a", "c"), sender.sent);
+    }
+
+    @Test
+    public void largeBacklogIsNotCompactedOnEveryAcknowledgement() throws IOException {
+        char[] filler = new char[1024];
+        Arrays.fill(filler, 'x');
+        String body = new String(filler);
+
+        OfflineRequestQueue queue = open(new FakeSender());
+        // About 3 MB, spread over six or more 512 KB segments.
+        for (int i = 0; i < 3000; i++) append(queue, "k" + i, body);
+        File[] before = segments();
+        assertTrue(before.length >= 6);
+        String lastBefore = before[before.length - 1].getName();
+
+        FakeSender sender = new FakeSender();
+        for (int i = 0; i < 50; i++) sender.codes.add(200);
+        OfflineRequestQueue reopened = open(sender);
+        reopened.replay();
+        assertEquals(2950, reopened.stats().get("depth"));
+
+        // Reopening starts one new segment; a compaction would have started several more.
+        File[] after = segments();
+        String lastAfter = after[after.length - 1].getName();
+        int grown = Integer.parseInt(lastAfter.substring(4, 12)) - Integer.parseInt(lastBefore.substring(4, 12));
+        assertTrue("segments grew by " + grown, grown <= 1);
+    }
+}
@@ -0,0 +1,112 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import org.junit.Test;
+
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    private static Request request(String method, String idempotencyKey) {
+        Request.Builder builder = new Request.Builder().url("https://example.com/");
+        builder.method(method, method.equals("POST") || method.equals("PUT") ? RequestBody.create(null, "{}") : null);
+        if (idempotencyKey != null) builder.header("Idempotency-Key", idempotencyKey);
+        return builder.build();
+    }
+
+    @Test
+    public void onlyIdempotentRequestsAreRetryable() {
+        assertTrue(RetryPolicy.isRetryable(request("GET", null)));
+        assertTrue(RetryPolicy.isRetryable(request("PUT", null)));
+        assertTrue(RetryPolicy.isRetryable(request("DELETE", null)));
+        assertFalse(RetryPolicy.isRetryable(request("POST", null)));
+        assertTrue(RetryPolicy.isRetryable(request("POST", "order-1")));
+    }
+
+    @Test
+    public void retryableStatuses() {
+        for (int code : new int[]{408, 429, 500, 502, 503, 504}) {
+            assertTrue(String.valueOf(code), RetryPolicy.isRetryableStatus(code));
+        }
+        for (int code : new int[]{200, 304, 400, 401, 404, 501}) {
+            assertFalse(String.valueOf(code), RetryPolicy.isRetryableStatus(code));
+        }
+    }
+
+    @Test
+    public void backoffStaysUnderTheExponentialCeiling() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.configure(3, 100L, 1000L);
+        for (int i = 0; i < 1000; i++) {
+            long first = policy.delayMillis(0, null);
+            assertTrue(first >= 0L && first < 100L);
+            long third = policy.delayMillis(2, null);
+            assertTrue(third >= 0L && third < 400L);
+            long late = policy.delayMillis(10, null);
+            assertTrue(late >= 0L && late < 1000L);
+        }
+    }
+
+    @Test
+    public void backoffDoesNotOverflowForLargeAttempts() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.configure(100, 1000L, 5000L);
+        for (int attempt = 0; attempt < 100; attempt++) {
+            long delay = policy.delayMillis(attempt, null);
+            assertTrue("attempt " + attempt, delay >= 0L && delay < 5000L);
+        }
+    }
+
+    @Test
+    public void configureClampsArguments() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.configure(-1, 0L, 0L);
+        assertEquals(0, policy.maxRetries());
+        assertEquals(0L, policy.delayMillis(5, null));
+    }
+
+    @Test
+    public void retryAfterSeconds() {
+        assertEquals(3000L, RetryPolicy.parseRetryAfter("3", 0L));
+        assertEquals(3000L, RetryPolicy.parseRetryAfter(" 3 ", 0L));
+        assertEquals(0L, RetryPolicy.parseRetryAfter("-5", 0L));
+    }
+
+    @Test
+    public void retryAfterHttpDate() {
+        // Sun, 06 Nov 1994 08:49:37 GMT
+        long date = 784111777000L;
+        assertEquals(10000L, RetryPolicy.parseRetryAfter("Sun, 06 Nov 1994 08:49:37 GMT", date - 10000L));
+        assertEquals(0L, RetryPolicy.parseRetryAfter("Sun, 06 Nov 1994 08:49:37 GMT", date + 10000L));
+    }
+
+    @Test
+    public void invalidRetryAfterIsIgnored() {
+        assertEquals(-1L, RetryPolicy.parseRetryAfter(null, 0L));
+        assertEquals(-1L, RetryPolicy.parseRetryAfter("", 0L));
+        assertEquals(-1L, RetryPolicy.parseRetryAfter("soon", 0L));
+    }
+
+    @Test
+    public void serverDelayIsCapped() {
+        RetryPolicy policy = new RetryPolicy();
+        assertEquals(2000L, policy.delayMillis(0, "2"));
+        assertEquals(60000L, policy.delayMillis(0, "3600"));
+    }
+
+    @Test
+    public void statsCountEvents() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.onRetry();
+        policy.onRetry();
+        policy.onExhausted();
+        policy.onShortCircuit();
+        assertEquals(2, policy.stats().get("retries"));
+        assertEquals(1, policy.stats().get("exhausted"));
+        assertEquals(1, policy.stats().get("short_circuited"));
+    }
+}
@@ -0,0 +1,89 @@
+package com.taticus.godot.plugin.android.firebase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TraceAggregatorTest {
+
+    private static TraceAggregator.Span span(String name, String attribute, long startNanos) {
+        TraceAggregator.Span span = new TraceAggregator.Span(name);
+        span.putAttribute("level", attribute);
+        span.start(startNanos);
+        return span;
+    }
+
+    @Test
+    public void nullOptionsGiveTheDefaultRule() {
+        TraceAggregator.Rule rule = TraceAggregator.Rule.parse(null);
+        assertEquals(1.0, rule.sampleRate, 0.0);
+        assertFalse(rule.aggregate);
+    }
+
+    @Test
+    public void parsesAndClampsRules() {
+        Map<String, Object> options = new HashMap<>();
+        options.put("sample_rate", 2);
+        options.put("aggregate", true);
+        TraceAggregator.Rule rule = TraceAggregator.Rule.parse(options);
+        assertEquals(1.0, rule.sampleRate, 0.0);
+        assertTrue(rule.aggregate);
+    }
+
+    @Test
+    public void fallsBackToTheWildcardRule() {
+        TraceAggregator aggregator = new TraceAggregator();
+        assertSame(TraceAggregator.Rule.DEFAULT, aggregator.rule("load"));
+        TraceAggregator.Rule wildcard = new TraceAggregator.Rule(0.5, false);
+        aggregator.setRule("*", wildcard);
+        assertSame(wildcard, aggregator.rule("load"));
+    }
+
+    @Test
+    public void foldsSpansWithTheSameAttributes() {
+        TraceAggregator aggregator = new TraceAggregator();
+        long ms = TimeUnit.MILLISECONDS.toNanos(1);
+        aggregator.record(span("load", "1", 0L), 3 * ms);
+        aggregator.record(span("load", "1", 0L), 7 * ms);
+        aggregator.record(span("load", "2", 0L), 4 * ms);
+        aggregator.record(new TraceAggregator.Span("never_started"), 4 * ms);
+        assertEquals(2, aggregator.pendingCount());
+
+        final List<Map<String, Long>> emitted = new ArrayList<>();
+        aggregator.flush(new TraceAggregator.Sink() {
+            @Override
+            public void emit(String name, Map<String, String> attributes, Map<String, Long> metrics) {
+                if ("1".equals(attributes.get("level"))) emitted.add(metrics);
+            }
+        });
+        assertEquals(0, aggregator.pendingCount());
+        Map<String, Long> metrics = emitted.get(0);
+        assertEquals(2L, (long) metrics.get("count"));
+        assertEquals(10000L, (long) metrics.get("duration_sum_us"));
+        assertEquals(3000L, (long) metrics.get("duration_min_us"));
+        assertEquals(7000L, (long) metrics.get("duration_max_us"));
+        assertEquals(1L, (long) metrics.get("le_5ms"));
+        assertEquals(1L, (long) metrics.get("le_10ms"));
+    }
+
+    @Test
+    public void countsSummariesDroppedPastTheLimit() {
+        TraceAggregator aggregator = new TraceAggregator();
+        for (int i = 0; i < 503; i++) aggregator.record(span("load", String.valueOf(i), 0L), 1000L);
+        assertEquals(500, aggregator.pendingCount());
+        assertEquals(3L, aggregator.droppedCount());
+
+        // Spans for an existing summary are still folded in.
+        aggregator.record(span("load", "0", 0L), 1000L);
+        assertEquals(3L, aggregator.droppedCount());
+    }
+}